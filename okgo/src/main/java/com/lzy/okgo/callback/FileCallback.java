@@ -47,6 +47,16 @@ public abstract class FileCallback extends AbsCallback<File> {
         convert.setCallback(this);
     }
 
+    /**
+     * 边下载边解压 zip、tar、tar.gz 到 folder，进度按照读取的压缩数据计算
+     *
+     * @param keepArchive 是否同时保存压缩包，为 false 时 onSuccess 中得到的是解压的文件夹
+     */
+    public FileCallback extractTo(String folder, boolean keepArchive) {
+        convert.setExtractFolder(folder, keepArchive);
+        return this;
+    }
+
     @Override
     public File convertResponse(Response response) throws Throwable {
         File file = convert.convertResponse(response);
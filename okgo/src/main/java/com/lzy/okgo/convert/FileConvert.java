@@ -20,15 +20,16 @@ import android.text.TextUtils;
 
 import com.lzy.okgo.callback.Callback;
 import com.lzy.okgo.model.Progress;
+import com.lzy.okgo.utils.ArchiveExtractor;
+import com.lzy.okgo.utils.FileChannelWriter;
 import com.lzy.okgo.utils.HttpUtils;
 import com.lzy.okgo.utils.IOUtils;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
 
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.BufferedSource;
 
 /**
  * ================================================
@@ -38,6 +39,9 @@ import okhttp3.ResponseBody;
  * 描    述：字符串的转换器
  * 修订历史：
  * ================================================
+ * <p>
+ * 2026-10-17
+ * 支持边下载边解压 zip、tar、tar.gz，进度按照读取的压缩数据计算
  */
 public class FileConvert implements Converter<File> {
 
@@ -46,6 +50,8 @@ public class FileConvert implements Converter<File> {
     private String folder;                  //目标文件存储的文件夹路径
     private String fileName;                //目标文件存储的文件名
     private Callback<File> callback;        //下载回调
+    private String extractFolder;           //解压的目标文件夹，为 null 时不解压
+    private boolean isKeepArchive;          //解压时是否同时保存压缩包
 
     public FileConvert() {
         this(null);
@@ -64,6 +70,16 @@ public class FileConvert implements Converter<File> {
         this.callback = callback;
     }
 
+    /**
+     * 边下载边解压到 folder，压缩包的类型根据文件头自动判断
+     *
+     * @param keepArchive 是否同时保存压缩包，为 false 时 convertResponse 返回解压的文件夹
+     */
+    public void setExtractFolder(String folder, boolean keepArchive) {
+        this.extractFolder = folder;
+        this.isKeepArchive = keepArchive;
+    }
+
     @Override
     public File convertResponse(Response response) throws Throwable {
         String url = response.request().url().toString();
@@ -75,14 +91,13 @@ public class FileConvert implements Converter<File> {
         File file = new File(dir, fileName);
         IOUtils.delFileOrFolder(file);
 
-        InputStream bodyStream = null;
-        byte[] buffer = new byte[8192];
-        FileOutputStream fileOutputStream = null;
+        BufferedSource source = null;
+        FileChannelWriter writer = null;
         try {
             ResponseBody body = response.body();
             if (body == null) return null;
 
-            bodyStream = body.byteStream();
+            source = body.source();
             Progress progress = new Progress();
             progress.totalSize = body.contentLength();
             progress.fileName = fileName;
@@ -91,10 +106,18 @@ public class FileConvert implements Converter<File> {
             progress.url = url;
             progress.tag = url;
 
+            if (extractFolder != null) {
+                ArchiveExtractor extractor = new ArchiveExtractor(new File(extractFolder));
+                extractor.extract(source, isKeepArchive ? file : null, (buffer, offset, length) -> {
+                    if (callback == null) return;
+                    Progress.changeProgress(progress, length, this::onProgress);
+                });
+                return isKeepArchive ? file : new File(extractFolder);
+            }
+
             int len;
-            fileOutputStream = new FileOutputStream(file);
-            while ((len = bodyStream.read(buffer)) != -1) {
-                fileOutputStream.write(buffer, 0, len);
+            writer = new FileChannelWriter(file, 0);
+            while ((len = writer.write(source, Long.MAX_VALUE)) != -1) {
 
                 if (callback == null) continue;
                 Progress.changeProgress(progress, len, new Progress.Action() {
@@ -104,11 +127,10 @@ public class FileConvert implements Converter<File> {
                     }
                 });
             }
-            fileOutputStream.flush();
             return file;
         } finally {
-            IOUtils.closeQuietly(bodyStream);
-            IOUtils.closeQuietly(fileOutputStream);
+            IOUtils.closeQuietly(source);
+            IOUtils.closeQuietly(writer);
         }
     }
 
@@ -25,6 +25,7 @@ import com.lzy.okgo.utils.OkLogger;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.locks.Lock;
 
 /**
@@ -332,6 +333,35 @@ public abstract class BaseDao<T> {
         return false;
     }
 
+    /**
+     * 在一个事务中更新多条记录
+     *
+     * @param valuesMap   key 为 whereClause 中唯一的参数，value 为该条记录需要更新的数据
+     * @param whereClause 只包含一个参数的条件，例如 "tag=?"
+     */
+    public boolean update(Map<String, ContentValues> valuesMap, String whereClause) {
+        if (valuesMap == null || valuesMap.isEmpty()) return false;
+        long start = System.currentTimeMillis();
+        lock.lock();
+        try {
+            database.beginTransaction();
+            for (Map.Entry<String, ContentValues> entry : valuesMap.entrySet()) {
+                database.update(getTableName(), entry.getValue(), whereClause, new String[]{entry.getKey()});
+            }
+            database.setTransactionSuccessful();
+            return true;
+        } catch (Exception e) {
+            OkLogger.printStackTrace(e);
+        } finally {
+            if (database.inTransaction()) {
+                database.endTransaction();
+            }
+            lock.unlock();
+            OkLogger.v(TAG, System.currentTimeMillis() - start + " updateMap");
+        }
+        return false;
+    }
+
     /** 更新一条记录 */
     public long update(SQLiteDatabase database, ContentValues contentValues, String whereClause, String[] whereArgs) {
         return database.update(getTableName(), contentValues, whereClause, whereArgs);
@@ -23,6 +23,7 @@ import com.lzy.okgo.OkGo;
 import com.lzy.okgo.cache.CacheEntity;
 import com.lzy.okgo.cookie.SerializableCookie;
 import com.lzy.okgo.model.Progress;
+import com.lzy.okgo.model.Segment;
 
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -39,11 +40,12 @@ import java.util.concurrent.locks.ReentrantLock;
 class DBHelper extends SQLiteOpenHelper {
 
     private static final String DB_CACHE_NAME = "okgo.db";
-    private static final int DB_CACHE_VERSION = 3;
+    private static final int DB_CACHE_VERSION = 4;
     static final String TABLE_CACHE = "cache";
     static final String TABLE_COOKIE = "cookie";
     static final String TABLE_DOWNLOAD = "download";
     static final String TABLE_UPLOAD = "upload";
+    static final String TABLE_SEGMENT = "segment";
 
     static final Lock lock = new ReentrantLock();
 
@@ -51,6 +53,7 @@ class DBHelper extends SQLiteOpenHelper {
     private TableEntity cookieTableEntity = new TableEntity(TABLE_COOKIE);
     private TableEntity downloadTableEntity = new TableEntity(TABLE_DOWNLOAD);
     private TableEntity uploadTableEntity = new TableEntity(TABLE_UPLOAD);
+    private TableEntity segmentTableEntity = new TableEntity(TABLE_SEGMENT);
 
     DBHelper() {
         this(OkGo.getInstance().getContext());
@@ -104,6 +107,13 @@ class DBHelper extends SQLiteOpenHelper {
                 .addColumn(new ColumnEntity(Progress.EXTRA3, "BLOB"))
                 .addColumn(new ColumnEntity(Progress.FILE_SUFFIX, "VARCHAR"))
                 .addColumn(new ColumnEntity(Progress.TEMP_FILENAME,"VARCHAR"));
+
+        segmentTableEntity.addColumn(new ColumnEntity(Segment.TAG, "VARCHAR"))//
+                .addColumn(new ColumnEntity(Segment.INDEX, "INTEGER"))//
+                .addColumn(new ColumnEntity(Segment.START, "INTEGER"))//
+                .addColumn(new ColumnEntity(Segment.END, "INTEGER"))//
+                .addColumn(new ColumnEntity(Segment.CURRENT, "INTEGER"))//
+                .addColumn(new ColumnEntity(Segment.TAG, Segment.INDEX));
     }
 
     @Override
@@ -112,6 +122,7 @@ class DBHelper extends SQLiteOpenHelper {
         db.execSQL(cookieTableEntity.buildTableString());
         db.execSQL(downloadTableEntity.buildTableString());
         db.execSQL(uploadTableEntity.buildTableString());
+        db.execSQL(segmentTableEntity.buildTableString());
     }
 
     @Override
@@ -119,8 +130,11 @@ class DBHelper extends SQLiteOpenHelper {
 
         // progress 新增了一个字段,file_suffix
         // progress 新增了一个字段，temp_name
+        // 新增了分段下载的断点表 segment
 
-        if (newVersion == 3 && oldVersion == 1) {
+        if (newVersion == 4 && oldVersion == 3) {
+            db.execSQL(segmentTableEntity.buildTableString());
+        } else if (newVersion == 4 && oldVersion == 1) {
 
             // sqlLite 不支持 同时加入多个值
             String sqlDownload = String.format("ALTER TABLE %s ADD COLUMN %s VARCHAR",TABLE_DOWNLOAD,Progress.FILE_SUFFIX);
@@ -133,11 +147,14 @@ class DBHelper extends SQLiteOpenHelper {
             String sqlUpload2 = String.format("ALTER TABLE %s ADD COLUMN %s VARCHAR",TABLE_UPLOAD,Progress.TEMP_FILENAME);
             db.execSQL(sqlUpload2);
 
-        } if (newVersion == 3 && oldVersion == 2 ) {
+            db.execSQL(segmentTableEntity.buildTableString());
+        } else if (newVersion == 4 && oldVersion == 2 ) {
             String sqlDownload = String.format("ALTER TABLE %s ADD COLUMN %s VARCHAR",TABLE_DOWNLOAD,Progress.TEMP_FILENAME);
             db.execSQL(sqlDownload);
             String sqlUpload = String.format("ALTER TABLE %s ADD COLUMN %s VARCHAR",TABLE_UPLOAD,Progress.TEMP_FILENAME);
             db.execSQL(sqlUpload);
+
+            db.execSQL(segmentTableEntity.buildTableString());
         }  else  {
             if (DBUtils.isNeedUpgradeTable(db, cacheTableEntity))
                 db.execSQL("DROP TABLE IF EXISTS " + TABLE_CACHE);
@@ -147,6 +164,8 @@ class DBHelper extends SQLiteOpenHelper {
                 db.execSQL("DROP TABLE IF EXISTS " + TABLE_DOWNLOAD);
             if (DBUtils.isNeedUpgradeTable(db, uploadTableEntity))
                 db.execSQL("DROP TABLE IF EXISTS " + TABLE_UPLOAD);
+            if (DBUtils.isNeedUpgradeTable(db, segmentTableEntity))
+                db.execSQL("DROP TABLE IF EXISTS " + TABLE_SEGMENT);
             onCreate(db);
 
         }
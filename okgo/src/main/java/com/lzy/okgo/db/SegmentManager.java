@@ -0,0 +1,60 @@
+package com.lzy.okgo.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.lzy.okgo.model.Segment;
+
+import java.util.List;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：分段下载的断点记录，每个下载任务的每个分段对应一条记录
+ * 修订历史：
+ * ================================================
+ */
+public class SegmentManager extends BaseDao<Segment> {
+
+    private SegmentManager() {
+        super(new DBHelper());
+    }
+
+    public static SegmentManager getInstance() {
+        return SegmentManagerHolder.instance;
+    }
+
+    private static class SegmentManagerHolder {
+        private static final SegmentManager instance = new SegmentManager();
+    }
+
+    @Override
+    public Segment parseCursorToBean(Cursor cursor) {
+        return Segment.parseCursorToBean(cursor);
+    }
+
+    @Override
+    public ContentValues getContentValues(Segment segment) {
+        return Segment.buildContentValues(segment);
+    }
+
+    @Override
+    public String getTableName() {
+        return DBHelper.TABLE_SEGMENT;
+    }
+
+    @Override
+    public void unInit() {
+    }
+
+    /** 获取下载任务的所有分段，按分段的起始位置排序 */
+    public List<Segment> get(String tag) {
+        return query(null, Segment.TAG + "=?", new String[]{tag}, null, null, Segment.START + " ASC", null);
+    }
+
+    /** 移除下载任务的所有分段 */
+    public void delete(String tag) {
+        delete(Segment.TAG + "=?", new String[]{tag});
+    }
+}
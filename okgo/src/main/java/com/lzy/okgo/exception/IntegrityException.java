@@ -0,0 +1,42 @@
+package com.lzy.okgo.exception;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：下载的文件摘要和期望的摘要不一致
+ * 修订历史：
+ * ================================================
+ */
+public class IntegrityException extends Exception {
+    private static final long serialVersionUID = 4236512069384726145L;
+
+    private final String algorithm;
+    private final String expected;
+    private final String actual;
+
+    public IntegrityException(String algorithm, String expected, String actual) {
+        super(algorithm + " mismatch, expected " + expected + " but was " + actual);
+        this.algorithm = algorithm;
+        this.expected = expected;
+        this.actual = actual;
+    }
+
+    public static IntegrityException MISMATCH(String algorithm, String expected, String actual) {
+        return new IntegrityException(algorithm, expected, actual);
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /** 期望的摘要，十六进制 */
+    public String getExpected() {
+        return expected;
+    }
+
+    /** 实际的摘要，十六进制 */
+    public String getActual() {
+        return actual;
+    }
+}
@@ -0,0 +1,19 @@
+package com.lzy.okgo.exception;
+
+import java.io.IOException;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：连接没有断开，但是速度长时间低于设定的下限，被主动断开
+ * 修订历史：
+ * ================================================
+ */
+public class StalledException extends IOException {
+    private static final long serialVersionUID = -3027160984211585830L;
+
+    public StalledException(Throwable cause) {
+        super("the connection stalled and was dropped", cause);
+    }
+}
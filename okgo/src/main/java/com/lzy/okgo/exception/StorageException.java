@@ -43,6 +43,10 @@ public class StorageException extends Exception {
         super(throwable);
     }
 
+    public static StorageException NOT_ENOUGH_SPACE(long required) {
+        return new StorageException("there isn't enough space on the storage, " + required + " bytes are required!");
+    }
+
     public static StorageException NOT_AVAILABLE() {
         return new StorageException("SDCard isn't available, please check SD card and permission: WRITE_EXTERNAL_STORAGE, and you must pay attention to Android6.0 RunTime Permissions!");
     }
@@ -62,6 +62,9 @@ public class HttpHeaders implements Serializable {
     public static final String HEAD_KEY_CONTENT_DISPOSITION = "Content-Disposition";
     public static final String HEAD_KEY_CONTENT_RANGE = "Content-Range";
     public static final String HEAD_KEY_RANGE = "Range";
+    public static final String HEAD_KEY_ACCEPT_RANGES = "Accept-Ranges";
+    public static final String HEAD_KEY_CONTENT_MD5 = "Content-MD5";
+    public static final String HEAD_KEY_DIGEST = "Digest";
     public static final String HEAD_KEY_CACHE_CONTROL = "Cache-Control";
     public static final String HEAD_KEY_CONNECTION = "Connection";
     public static final String HEAD_VALUE_CONNECTION_KEEP_ALIVE = "keep-alive";
@@ -25,6 +25,7 @@ import com.lzy.okgo.request.base.Request;
 import com.lzy.okgo.utils.IOUtils;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * ================================================
@@ -40,6 +41,9 @@ import java.io.Serializable;
  * Attempt to invoke virtual method 'long java.lang.Long.longValue()' on a null object reference
  * <p>
  * com.lzy.okgo.model.Progress.bufferSpeed(Progress.java:4)
+ * <p>
+ * 2026-10-17
+ * status 改为 volatile，通过 compareAndSetStatus 原子地转换，不允许的转换会失败
  */
 public class Progress implements Serializable {
     private static final long serialVersionUID = 6353658567594109891L;
@@ -51,6 +55,8 @@ public class Progress implements Serializable {
     public static final int ERROR = 4;        //错误
     public static final int FINISH = 5;       //完成
 
+    private static final AtomicIntegerFieldUpdater<Progress> STATUS_UPDATER = AtomicIntegerFieldUpdater.newUpdater(Progress.class, "status");
+
     public static final String TAG = "tag";
     public static final String URL = "url";
     public static final String FOLDER = "folder";
@@ -79,7 +85,7 @@ public class Progress implements Serializable {
     public long totalSize;                          //总字节长度, byte
     public long currentSize;                        //本次下载的大小, byte
     public transient long speed;                    //网速，byte/s
-    public int status;                              //当前状态
+    public volatile int status;                     //当前状态，多个线程修改时使用 compareAndSetStatus
     public int priority;                            //任务优先级
     public long date;                               //创建时间
     public Request<?, ? extends Request> request;   //网络请求
@@ -137,6 +143,58 @@ public class Progress implements Serializable {
         return progress;
     }
 
+    /**
+     * 状态机允许的转换，任何状态都可以回到 NONE（重新下载），其余的转换为：
+     * <pre>
+     * NONE    -> WAITING
+     * WAITING -> LOADING, PAUSE
+     * LOADING -> PAUSE, ERROR, FINISH, WAITING（等待磁盘空间）
+     * PAUSE   -> WAITING, FINISH（暂停时数据已经全部写入）
+     * ERROR   -> WAITING
+     * FINISH  -> WAITING（刷新）, ERROR（文件已经损坏）
+     * </pre>
+     * PAUSE、ERROR、FINISH 可以转换到自身，用于重复通知
+     */
+    public static boolean isValidTransition(int from, int to) {
+        if (to == NONE) return true;
+        switch (from) {
+            case NONE:
+                return to == WAITING;
+            case WAITING:
+                return to == LOADING || to == PAUSE;
+            case LOADING:
+                return to == PAUSE || to == ERROR || to == FINISH || to == WAITING;
+            case PAUSE:
+                return to == WAITING || to == FINISH || to == PAUSE;
+            case ERROR:
+                return to == WAITING || to == ERROR;
+            case FINISH:
+                return to == WAITING || to == ERROR || to == FINISH;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 当前状态是 expect 时原子地修改为 update，转换不符合状态机的规则时不会修改
+     *
+     * @return 是否修改成功
+     */
+    public boolean compareAndSetStatus(int expect, int update) {
+        return isValidTransition(expect, update) && STATUS_UPDATER.compareAndSet(this, expect, update);
+    }
+
+    /**
+     * 从当前状态转换到 update，当前状态不允许转换时返回 false
+     */
+    public boolean transitionTo(int update) {
+        while (true) {
+            int current = status;
+            if (!isValidTransition(current, update)) return false;
+            if (STATUS_UPDATER.compareAndSet(this, current, update)) return true;
+        }
+    }
+
     /**
      * 平滑网速，避免抖动过大
      */
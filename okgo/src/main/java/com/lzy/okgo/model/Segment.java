@@ -0,0 +1,122 @@
+package com.lzy.okgo.model;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：分段下载时的一个字节区间，[start, end] 均为闭区间，current 为下一个要写入的位置
+ * 修订历史：
+ * ================================================
+ */
+public class Segment implements Serializable {
+    private static final long serialVersionUID = -2203735285046651187L;
+
+    public static final String TAG = "tag";
+    public static final String INDEX = "segmentIndex";
+    public static final String START = "startOffset";
+    public static final String END = "endOffset";
+    public static final String CURRENT = "currentOffset";
+
+    public String tag;                              //所属下载任务的标识键
+    public int index;                               //分段的序号
+    public long start;                              //起始位置, byte
+    public long end;                                //结束位置, byte
+    public long current;                            //下一个写入的位置, byte
+
+    public Segment() {
+    }
+
+    public Segment(String tag, int index, long start, long end) {
+        this.tag = tag;
+        this.index = index;
+        this.start = start;
+        this.end = end;
+        this.current = start;
+    }
+
+    /** 该分段是否已经下载完成 */
+    public boolean isFinished() {
+        return current > end;
+    }
+
+    /** 该分段剩余未下载的字节数 */
+    public long remaining() {
+        return Math.max(0, end + 1 - current);
+    }
+
+    /**
+     * 把 [start, totalSize) 平均切分成 count 段，最后一段包含除不尽的部分
+     */
+    public static List<Segment> split(String tag, long start, long totalSize, int count) {
+        List<Segment> segments = new ArrayList<>();
+        long length = totalSize - start;
+        if (length <= 0 || count <= 0) return segments;
+        long size = length / count;
+        for (int i = 0; i < count; i++) {
+            long segmentStart = start + size * i;
+            long segmentEnd = i == count - 1 ? totalSize - 1 : segmentStart + size - 1;
+            segments.add(new Segment(tag, i, segmentStart, segmentEnd));
+        }
+        return segments;
+    }
+
+    /** 所有分段剩余未下载的字节数 */
+    public static long remaining(List<Segment> segments) {
+        long remaining = 0;
+        for (Segment segment : segments) {
+            remaining += segment.remaining();
+        }
+        return remaining;
+    }
+
+    /**
+     * 从第一段开始连续写入的位置，用于按单连接的方式续传，分段必须按 start 升序排列
+     */
+    public static long contiguousSize(List<Segment> segments) {
+        if (segments.isEmpty()) return 0;
+        long size = segments.get(0).start;
+        for (Segment segment : segments) {
+            if (!segment.isFinished()) return segment.current;
+            size = segment.end + 1;
+        }
+        return size;
+    }
+
+    public static ContentValues buildContentValues(Segment segment) {
+        ContentValues values = new ContentValues();
+        values.put(TAG, segment.tag);
+        values.put(INDEX, segment.index);
+        values.put(START, segment.start);
+        values.put(END, segment.end);
+        values.put(CURRENT, segment.current);
+        return values;
+    }
+
+    public static Segment parseCursorToBean(Cursor cursor) {
+        Segment segment = new Segment();
+        segment.tag = cursor.getString(cursor.getColumnIndex(Segment.TAG));
+        segment.index = cursor.getInt(cursor.getColumnIndex(Segment.INDEX));
+        segment.start = cursor.getLong(cursor.getColumnIndex(Segment.START));
+        segment.end = cursor.getLong(cursor.getColumnIndex(Segment.END));
+        segment.current = cursor.getLong(cursor.getColumnIndex(Segment.CURRENT));
+        return segment;
+    }
+
+    @Override
+    public String toString() {
+        return "Segment{" +//
+                "tag=" + tag +//
+                ", index=" + index +//
+                ", start=" + start +//
+                ", end=" + end +//
+                ", current=" + current +//
+                '}';
+    }
+}
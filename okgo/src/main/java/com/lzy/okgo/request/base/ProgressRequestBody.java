@@ -19,6 +19,7 @@ import com.lzy.okgo.callback.Callback;
 import com.lzy.okgo.model.Progress;
 import com.lzy.okgo.utils.HttpUtils;
 import com.lzy.okgo.utils.OkLogger;
+import com.lzy.okgo.utils.RateLimiter;
 
 import java.io.IOException;
 
@@ -38,12 +39,16 @@ import okio.Sink;
  * 描    述：包装的请求体，处理进度，可以处理任何的 RequestBody，
  * 修订历史：
  * ================================================
+ * <p>
+ * 2026-10-17
+ * 写入时按照设置的限速器分块限速
  */
 public class ProgressRequestBody<T> extends RequestBody {
 
     private RequestBody requestBody;         //实际的待包装请求体
     private Callback<T> callback;
     private UploadInterceptor interceptor;
+    private RateLimiter[] rateLimiters;      //上传限速，可以为 null
 
     ProgressRequestBody(RequestBody requestBody, Callback<T> callback) {
         this.requestBody = requestBody;
@@ -89,18 +94,24 @@ public class ProgressRequestBody<T> extends RequestBody {
 
         @Override
         public void write(Buffer source, long byteCount) throws IOException {
-            super.write(source, byteCount);
-
-            Progress.changeProgress(progress, byteCount, new Progress.Action() {
-                @Override
-                public void call(Progress progress) {
-                    if (interceptor != null) {
-                        interceptor.uploadProgress(progress);
-                    } else {
-                        onProgress(progress);
+            while (byteCount > 0) {
+                //限速时分块写入，每块写入前先获取许可
+                long count = RateLimiter.chunkSize(byteCount, rateLimiters);
+                RateLimiter.acquire(count, rateLimiters);
+                super.write(source, count);
+                byteCount -= count;
+
+                Progress.changeProgress(progress, count, new Progress.Action() {
+                    @Override
+                    public void call(Progress progress) {
+                        if (interceptor != null) {
+                            interceptor.uploadProgress(progress);
+                        } else {
+                            onProgress(progress);
+                        }
                     }
-                }
-            });
+                });
+            }
         }
     }
 
@@ -119,6 +130,11 @@ public class ProgressRequestBody<T> extends RequestBody {
         this.interceptor = interceptor;
     }
 
+    /** 设置上传的限速器，多个限速器同时生效，速度由最慢的决定 */
+    public void setRateLimiters(RateLimiter... rateLimiters) {
+        this.rateLimiters = rateLimiters;
+    }
+
     public interface UploadInterceptor {
         void uploadProgress(Progress progress);
     }
@@ -31,6 +31,7 @@ import com.lzy.okgo.model.HttpHeaders;
 import com.lzy.okgo.model.HttpMethod;
 import com.lzy.okgo.model.HttpParams;
 import com.lzy.okgo.utils.HttpUtils;
+import com.lzy.okgo.utils.RateLimiter;
 
 import java.io.IOException;
 import java.io.Serializable;
@@ -70,6 +71,7 @@ public abstract class Request<T, R extends Request> implements Serializable {
     protected transient Converter<T> converter;
     protected transient CachePolicy<T> cachePolicy;
     protected transient ProgressRequestBody.UploadInterceptor uploadInterceptor;
+    protected transient RateLimiter[] rateLimiters;
 
     public Request(String url) {
         this.url = url;
@@ -259,6 +261,22 @@ public abstract class Request<T, R extends Request> implements Serializable {
         return (R) this;
     }
 
+    /** 替换请求的地址，参数和请求头保持不变，用于在同一个资源的多个镜像地址之间切换 */
+    @SuppressWarnings("unchecked")
+    public R baseUrl(String baseUrl) {
+        HttpUtils.checkNotNull(baseUrl, "baseUrl == null");
+        this.baseUrl = baseUrl;
+        this.url = baseUrl;
+        return (R) this;
+    }
+
+    /** 上传请求体的限速，多个限速器同时生效，例如任务的限速和全局的限速 */
+    @SuppressWarnings("unchecked")
+    public R rateLimiters(RateLimiter... rateLimiters) {
+        this.rateLimiters = rateLimiters;
+        return (R) this;
+    }
+
     /** 默认返回第一个参数 */
     public String getUrlParam(String key) {
         List<String> values = params.urlParamsMap.get(key);
@@ -317,6 +335,11 @@ public abstract class Request<T, R extends Request> implements Serializable {
         return mRequest;
     }
 
+    /** 发送请求使用的客户端，没有单独设置时为全局的客户端 */
+    public OkHttpClient getClient() {
+        return client != null ? client : OkGo.getInstance().getOkHttpClient();
+    }
+
     public void setCallback(Callback<T> callback) {
         this.callback = callback;
     }
@@ -343,6 +366,7 @@ public abstract class Request<T, R extends Request> implements Serializable {
         if (requestBody != null) {
             ProgressRequestBody<T> progressRequestBody = new ProgressRequestBody<>(requestBody, callback);
             progressRequestBody.setInterceptor(uploadInterceptor);
+            progressRequestBody.setRateLimiters(rateLimiters);
             mRequest = generateRequest(progressRequestBody);
         } else {
             mRequest = generateRequest(null);
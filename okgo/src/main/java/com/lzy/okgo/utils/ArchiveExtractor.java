@@ -0,0 +1,278 @@
+package com.lzy.okgo.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：边下载边解压，支持 zip、tar 和 tar.gz，数据到达后直接解压到目标文件夹，
+ * 不需要先保存压缩包再读一遍，压缩包也可以在读取的同时保存下来
+ * 修订历史：
+ * ================================================
+ */
+public class ArchiveExtractor {
+
+    public static final int TYPE_AUTO = 0;          //根据文件头自动判断
+    public static final int TYPE_ZIP = 1;
+    public static final int TYPE_TAR = 2;
+    public static final int TYPE_TAR_GZ = 3;
+
+    private static final int BUFFER_SIZE = 1024 * 64;
+    private static final int TAR_BLOCK_SIZE = 512;
+
+    private final File folder;
+    private final int type;
+
+    public ArchiveExtractor(File folder) {
+        this(folder, TYPE_AUTO);
+    }
+
+    public ArchiveExtractor(File folder, int type) {
+        this.folder = folder;
+        this.type = type;
+    }
+
+    /** 读取压缩包的回调，数据是压缩后的原始字节，在解压线程中调用，抛出异常会中止解压 */
+    public interface OnReadListener {
+        void onRead(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    /**
+     * 从 source 中读取压缩包并解压，读完所有的数据后返回，包括压缩包末尾不需要解压的部分
+     *
+     * @param archive  同时保存压缩包的文件，为 null 时不保存
+     * @param listener 读取压缩数据的回调，可以为 null
+     * @return 解压出的文件，不包括文件夹
+     */
+    public List<File> extract(BufferedSource source, File archive, OnReadListener listener) throws IOException {
+        int archiveType = type == TYPE_AUTO ? detect(source) : type;
+        if (!IOUtils.createFolder(folder)) throw new IOException("can't create folder " + folder);
+        String root = folder.getCanonicalPath() + File.separator;
+        OutputStream out = archive != null ? new FileOutputStream(archive) : null;
+        TeeInputStream raw = new TeeInputStream(source.inputStream(), out, listener);
+        try {
+            List<File> files;
+            if (archiveType == TYPE_ZIP) {
+                files = extractZip(new ZipInputStream(raw), root);
+            } else if (archiveType == TYPE_TAR_GZ) {
+                files = extractTar(new GZIPInputStream(raw, BUFFER_SIZE), root);
+            } else if (archiveType == TYPE_TAR) {
+                files = extractTar(raw, root);
+            } else {
+                throw new IOException("unsupported archive type " + archiveType);
+            }
+            //zip 的中央目录等不需要解压的部分也要读完，保证压缩包完整、进度完整
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (raw.read(buffer) != -1) {
+            }
+            return files;
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * 根据文件头判断压缩包的类型，不会消耗 source 中的数据
+     *
+     * @return TYPE_ZIP, TYPE_TAR, TYPE_TAR_GZ，无法识别时返回 TYPE_AUTO
+     */
+    public static int detect(BufferedSource source) throws IOException {
+        source.request(262);
+        Buffer buffer = source.buffer();
+        if (buffer.size() >= 4 && buffer.getByte(0) == 'P' && buffer.getByte(1) == 'K') {
+            return TYPE_ZIP;
+        }
+        if (buffer.size() >= 2 && (buffer.getByte(0) & 0xff) == 0x1f && (buffer.getByte(1) & 0xff) == 0x8b) {
+            return TYPE_TAR_GZ;
+        }
+        if (buffer.size() >= 262 && buffer.getByte(257) == 'u' && buffer.getByte(258) == 's' //
+                && buffer.getByte(259) == 't' && buffer.getByte(260) == 'a' && buffer.getByte(261) == 'r') {
+            return TYPE_TAR;
+        }
+        return TYPE_AUTO;
+    }
+
+    private List<File> extractZip(ZipInputStream in, String root) throws IOException {
+        List<File> files = new ArrayList<>();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ZipEntry entry;
+        while ((entry = in.getNextEntry()) != null) {
+            File file = resolve(root, entry.getName());
+            if (entry.isDirectory()) {
+                IOUtils.createFolder(file);
+            } else {
+                write(in, file, Long.MAX_VALUE, buffer);
+                files.add(file);
+            }
+            in.closeEntry();
+        }
+        return files;
+    }
+
+    private List<File> extractTar(InputStream in, String root) throws IOException {
+        List<File> files = new ArrayList<>();
+        byte[] header = new byte[TAR_BLOCK_SIZE];
+        byte[] buffer = new byte[BUFFER_SIZE];
+        String longName = null;     //GNU 长文件名或者 pax 头中的路径，用于下一个文件
+        while (readFully(in, header, TAR_BLOCK_SIZE) == TAR_BLOCK_SIZE && header[0] != 0) {
+            long size = parseSize(header);
+            long padding = (TAR_BLOCK_SIZE - size % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE;
+            char flag = (char) header[156];
+            String name = longName != null ? longName : parseName(header);
+            longName = null;
+            if (flag == 'L') {
+                longName = trimNul(new String(readData(in, size), "UTF-8"));
+            } else if (flag == 'x') {
+                longName = parsePaxPath(new String(readData(in, size), "UTF-8"));
+            } else if (flag == '5') {
+                IOUtils.createFolder(resolve(root, name));
+                skipFully(in, size);
+            } else if (flag == '0' || flag == '\0' || flag == '7') {
+                File file = resolve(root, name);
+                write(in, file, size, buffer);
+                files.add(file);
+            } else {
+                //链接、设备文件等不解压
+                skipFully(in, size);
+            }
+            skipFully(in, padding);
+        }
+        return files;
+    }
+
+    /** 防止压缩包中的 ../ 写到目标文件夹之外 */
+    private File resolve(String root, String name) throws IOException {
+        File file = new File(folder, name);
+        String path = file.getCanonicalPath();
+        if (!path.startsWith(root) && !(path + File.separator).equals(root)) throw new IOException("the entry " + name + " is outside of the target folder");
+        return file;
+    }
+
+    private static void write(InputStream in, File file, long size, byte[] buffer) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null) IOUtils.createFolder(parent);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            long remaining = size;
+            int len;
+            while (remaining > 0 && (len = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                out.write(buffer, 0, len);
+                remaining -= len;
+            }
+            if (size != Long.MAX_VALUE && remaining > 0) throw new IOException("unexpected end of archive in " + file);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /** tar 的长度是八进制，超过 8G 时使用 base-256 */
+    private static long parseSize(byte[] header) {
+        if ((header[124] & 0x80) != 0) {
+            long size = 0;
+            for (int i = 125; i < 136; i++) {
+                size = size << 8 | (header[i] & 0xff);
+            }
+            return size;
+        }
+        String octal = trimNul(new String(header, 124, 12)).trim();
+        return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+    }
+
+    /** ustar 格式的文件名由 prefix 和 name 两部分组成 */
+    private static String parseName(byte[] header) throws IOException {
+        String name = trimNul(new String(header, 0, 100, "UTF-8"));
+        boolean isUstar = header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r';
+        String prefix = isUstar ? trimNul(new String(header, 345, 155, "UTF-8")) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    /** pax 头的每一行格式为 "长度 key=value\n" */
+    private static String parsePaxPath(String records) {
+        for (String record : records.split("\n")) {
+            int start = record.indexOf(' ');
+            if (start > 0 && record.startsWith("path=", start + 1)) {
+                return record.substring(start + 6);
+            }
+        }
+        return null;
+    }
+
+    private static String trimNul(String value) {
+        int index = value.indexOf('\0');
+        return index >= 0 ? value.substring(0, index) : value;
+    }
+
+    private static byte[] readData(InputStream in, long size) throws IOException {
+        if (size > 1024 * 1024) throw new IOException("the tar header is too large: " + size);
+        byte[] data = new byte[(int) size];
+        if (readFully(in, data, data.length) != data.length) throw new IOException("unexpected end of archive");
+        return data;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int count = 0;
+        int len;
+        while (count < length && (len = in.read(buffer, count, length - count)) != -1) {
+            count += len;
+        }
+        return count;
+    }
+
+    private static void skipFully(InputStream in, long length) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(Math.max(length, 1), BUFFER_SIZE)];
+        while (length > 0) {
+            int len = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (len == -1) throw new IOException("unexpected end of archive");
+            length -= len;
+        }
+    }
+
+    /** 读取原始的压缩数据，同时保存压缩包并回调 */
+    private static class TeeInputStream extends FilterInputStream {
+        private final OutputStream out;
+        private final OnReadListener listener;
+
+        TeeInputStream(InputStream in, OutputStream out, OnReadListener listener) {
+            super(in);
+            this.out = out;
+            this.listener = listener;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) {
+                if (out != null) out.write(b, off, count);
+                if (listener != null) listener.onRead(b, off, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(Math.max(n, 1), BUFFER_SIZE)];
+            int len = read(buffer, 0, buffer.length);
+            return len == -1 ? 0 : len;
+        }
+    }
+}
@@ -28,6 +28,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.CharArrayWriter;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
@@ -40,6 +42,7 @@ import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -559,4 +562,48 @@ public class IOUtils {
         }
         return true;
     }
+
+    /**
+     * Create a hard link of the source file, copy it if the link can not be created.
+     * The target file will be replaced if it exists.
+     *
+     * @param source source file.
+     * @param target target file.
+     * @throws IOException if both link and copy failed.
+     */
+    public static void linkOrCopy(File source, File target) throws IOException {
+        if (source.getAbsolutePath().equals(target.getAbsolutePath())) return;
+        File parent = target.getParentFile();
+        if (parent != null && !createFolder(parent)) throw new IOException("can't create folder " + parent);
+        delFileOrFolder(target);
+        if (Build.VERSION.SDK_INT >= 21) {
+            try {
+                android.system.Os.link(source.getAbsolutePath(), target.getAbsolutePath());
+                return;
+            } catch (Exception e) {
+                // different file system or not supported, copy instead
+            }
+        }
+        FileInputStream input = null;
+        FileOutputStream output = null;
+        try {
+            input = new FileInputStream(source);
+            output = new FileOutputStream(target);
+            FileChannel inChannel = input.getChannel();
+            FileChannel outChannel = output.getChannel();
+            long position = 0;
+            long size = inChannel.size();
+            while (position < size) {
+                position += inChannel.transferTo(position, size - position, outChannel);
+            }
+        } catch (IOException e) {
+            closeQuietly(output);
+            output = null;
+            delFileOrFolder(target);
+            throw e;
+        } finally {
+            closeQuietly(input);
+            closeQuietly(output);
+        }
+    }
 }
@@ -0,0 +1,110 @@
+package com.lzy.okgo.utils;
+
+import java.io.InterruptedIOException;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：令牌桶限速器，按字节计数，速度可以在传输过程中随时修改，
+ * 修改后正在等待的线程立即按新的速度重新计算等待时间
+ * 修订历史：
+ * ================================================
+ */
+public class RateLimiter {
+
+    public static final long UNLIMITED = 0;                 //不限速
+
+    private static final long MIN_CHUNK_SIZE = 1024;        //限速时每次读写的最小字节数
+    private static final long CHUNK_DIVISOR = 10;           //限速时每次读写不超过 1/10 秒的数据量
+    private static final long BURST_DIVISOR = 4;            //令牌桶最多积攒 1/4 秒的数据量
+
+    private long rate;              //每秒允许传输的字节数，小于等于0表示不限速
+    private double tokens;          //当前可用的令牌，可以为负数，表示已经透支的字节数
+    private long lastRefillTime;    //上次补充令牌的时间，单位 ns
+
+    public RateLimiter() {
+        this(UNLIMITED);
+    }
+
+    public RateLimiter(long bytesPerSecond) {
+        setRate(bytesPerSecond);
+    }
+
+    /** 设置每秒允许传输的字节数，小于等于0表示不限速，正在进行的传输立即生效 */
+    public synchronized void setRate(long bytesPerSecond) {
+        refill();
+        rate = Math.max(bytesPerSecond, UNLIMITED);
+        if (rate == UNLIMITED) {
+            tokens = 0;
+        } else {
+            tokens = Math.min(tokens, burstSize());
+        }
+        notifyAll();
+    }
+
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    public synchronized boolean isLimited() {
+        return rate > UNLIMITED;
+    }
+
+    /**
+     * 获取传输 bytes 字节的许可，令牌不足时阻塞等待
+     * 只要桶中还有令牌就允许透支，透支的部分由后续的调用等待偿还，所以单次可以传输任意长度
+     */
+    public synchronized void acquire(long bytes) throws InterruptedIOException {
+        if (bytes <= 0) return;
+        try {
+            while (rate > UNLIMITED) {
+                refill();
+                if (tokens > 0) {
+                    tokens -= bytes;
+                    return;
+                }
+                long waitTime = (long) Math.ceil(-tokens * 1000 / rate);
+                wait(Math.max(waitTime, 1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the rate limiter");
+        }
+    }
+
+    /** 每次读写的推荐字节数，限速时控制在 1/10 秒的数据量以内，避免单次等待过长 */
+    public synchronized long chunkSize(long maxBytes) {
+        if (rate <= UNLIMITED) return maxBytes;
+        return Math.min(maxBytes, Math.max(rate / CHUNK_DIVISOR, MIN_CHUNK_SIZE));
+    }
+
+    private long burstSize() {
+        return Math.max(rate / BURST_DIVISOR, MIN_CHUNK_SIZE);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate > UNLIMITED && lastRefillTime != 0) {
+            tokens = Math.min(tokens + (now - lastRefillTime) * rate / 1e9, burstSize());
+        }
+        lastRefillTime = now;
+    }
+
+    /** 依次获取多个限速器的许可，例如任务自身的限速和全局的限速，null 会被忽略 */
+    public static void acquire(long bytes, RateLimiter... limiters) throws InterruptedIOException {
+        if (limiters == null) return;
+        for (RateLimiter limiter : limiters) {
+            if (limiter != null) limiter.acquire(bytes);
+        }
+    }
+
+    /** 多个限速器中最小的推荐字节数 */
+    public static long chunkSize(long maxBytes, RateLimiter... limiters) {
+        if (limiters == null) return maxBytes;
+        for (RateLimiter limiter : limiters) {
+            if (limiter != null) maxBytes = limiter.chunkSize(maxBytes);
+        }
+        return maxBytes;
+    }
+}
@@ -0,0 +1,140 @@
+package com.lzy.okgo.utils;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：对比原来的 BufferedInputStream + RandomAccessFile 和 FileChannelWriter 写文件的速度，
+ * 数据来自内存，每次最多读 8KB，和读网络时一样。
+ * 默认写 32MB，可以用 -Dbenchmark.size=536870912 指定字节数，-Dbenchmark.rounds 指定轮数
+ * 修订历史：
+ * ================================================
+ */
+public class FileChannelWriterBenchmark {
+
+    private static final int OLD_BUFFER_SIZE = 1024 * 8;     //原来 DownloadTask 的缓冲区大小
+    private static final int READ_SIZE = 1024 * 8;           //模拟 socket 每次返回的字节数
+
+    @Test
+    public void compare() throws Exception {
+        long size = Long.getLong("benchmark.size", 1024 * 1024 * 32);
+        int rounds = Integer.getInteger("benchmark.rounds", 3);
+        File oldFile = File.createTempFile("old", ".bin");
+        File newFile = File.createTempFile("new", ".bin");
+        try {
+            for (int round = 1; round <= rounds; round++) {
+                long oldTime = writeOld(size, oldFile);
+                long newTime = writeNew(size, newFile);
+                System.out.println(String.format("round %d, %d MB: stream %d MB/s, FileChannelWriter %d MB/s", //
+                        round, size >> 20, throughput(size, oldTime), throughput(size, newTime)));
+            }
+            assertArrayEquals(md5(oldFile), md5(newFile));
+        } finally {
+            oldFile.delete();
+            newFile.delete();
+        }
+    }
+
+    /** 改用 FileChannelWriter 之前 DownloadTask 中的写法 */
+    private static long writeOld(long size, File file) throws IOException {
+        long start = System.nanoTime();
+        InputStream in = new BufferedInputStream(Okio.buffer(new ChunkedSource(size)).inputStream(), OLD_BUFFER_SIZE);
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(0);
+            byte[] buffer = new byte[OLD_BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buffer, 0, OLD_BUFFER_SIZE)) != -1) {
+                out.write(buffer, 0, len);
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+            IOUtils.closeQuietly(out);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long writeNew(long size, File file) throws IOException {
+        long start = System.nanoTime();
+        BufferedSource source = Okio.buffer(new ChunkedSource(size));
+        new RandomAccessFile(file, "rw").setLength(0);
+        FileChannelWriter writer = new FileChannelWriter(file, 0);
+        try {
+            while (writer.write(source, Long.MAX_VALUE) != -1) {
+            }
+        } finally {
+            IOUtils.closeQuietly(writer);
+            IOUtils.closeQuietly(source);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long throughput(long size, long nanos) {
+        return (size >> 20) * 1000000000L / Math.max(nanos, 1);
+    }
+
+    private static byte[] md5(File file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[1024 * 64];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, len);
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return digest.digest();
+    }
+
+    /** 每次最多返回 8KB 的数据源 */
+    private static class ChunkedSource implements Source {
+        private final byte[] chunk = new byte[READ_SIZE];
+        private long remaining;
+
+        ChunkedSource(long size) {
+            this.remaining = size;
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = (byte) (i * 31 + 7);
+            }
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) {
+            if (remaining <= 0) return -1;
+            int len = (int) Math.min(Math.min(byteCount, READ_SIZE), remaining);
+            sink.write(chunk, 0, len);
+            remaining -= len;
+            return len;
+        }
+
+        @Override
+        public Timeout timeout() {
+            return Timeout.NONE;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
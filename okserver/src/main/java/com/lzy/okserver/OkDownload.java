@@ -18,12 +18,19 @@ package com.lzy.okserver;
 import android.os.Environment;
 
 import com.lzy.okgo.db.DownloadManager;
+import com.lzy.okgo.db.SegmentManager;
 import com.lzy.okgo.model.Progress;
 import com.lzy.okgo.request.base.Request;
 import com.lzy.okgo.utils.IOUtils;
 import com.lzy.okgo.utils.OkLogger;
+import com.lzy.okgo.utils.RateLimiter;
+import com.lzy.okserver.download.DownloadGroup;
 import com.lzy.okserver.download.DownloadTask;
+import com.lzy.okserver.download.DiskSpaceManager;
 import com.lzy.okserver.download.DownloadThreadPool;
+import com.lzy.okserver.download.RetryPolicy;
+import com.lzy.okserver.download.SingleFlight;
+import com.lzy.okserver.task.ProgressPersister;
 import com.lzy.okserver.task.XExecutor;
 
 import java.io.File;
@@ -46,7 +53,13 @@ public class OkDownload {
 
     private String folder;                                      //下载的默认文件夹
     private DownloadThreadPool threadPool;                      //下载的线程池
+    private ProgressPersister persister;                        //下载进度的延迟写入
+    private RateLimiter rateLimiter;                            //所有下载任务共享的限速
+    private SingleFlight singleFlight;                          //相同资源的下载合并
+    private DiskSpaceManager diskSpaceManager;                  //磁盘空间的准入控制
+    private RetryPolicy retryPolicy;                            //下载失败后的重试策略，为 null 时不重试
     private ConcurrentHashMap<String, DownloadTask> taskMap;    //所有任务
+    private ConcurrentHashMap<String, DownloadGroup> groupMap;  //所有分组
 
     public static OkDownload getInstance() {
         return OkDownloadHolder.instance;
@@ -60,7 +73,12 @@ public class OkDownload {
         folder = Environment.getExternalStorageDirectory() + File.separator + "download" + File.separator;
         IOUtils.createFolder(folder);
         threadPool = new DownloadThreadPool();
+        persister = new ProgressPersister(DownloadManager.getInstance(), SegmentManager.getInstance());
+        rateLimiter = new RateLimiter();
+        singleFlight = new SingleFlight();
+        diskSpaceManager = new DiskSpaceManager();
         taskMap = new ConcurrentHashMap<>();
+        groupMap = new ConcurrentHashMap<>();
 
         //校验数据的有效性，防止下载过程中退出，第二次进入的时候，由于状态没有更新导致的状态错误
         List<Progress> taskList = DownloadManager.getInstance().getDownloading();
@@ -196,6 +214,55 @@ public class OkDownload {
         return threadPool;
     }
 
+    /** 下载进度的延迟写入，可以设置写入数据库的间隔 */
+    public ProgressPersister getPersister() {
+        return persister;
+    }
+
+    /** 设置所有下载任务的总速度，单位 byte/s，小于等于0表示不限速，正在下载的任务立即生效 */
+    public OkDownload setRateLimit(long bytesPerSecond) {
+        rateLimiter.setRate(bytesPerSecond);
+        return this;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /** 是否合并相同资源的下载，开启后 url 和校验标识都相同的任务只下载一次，每个任务仍然得到自己的回调和文件 */
+    public OkDownload setSingleFlight(boolean enabled) {
+        singleFlight.setEnabled(enabled);
+        return this;
+    }
+
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * 剩余空间不足时的策略，所有正在下载的任务还没有写入的字节都会计入预留
+     *
+     * @param policy {@link DiskSpaceManager#POLICY_NONE}、{@link DiskSpaceManager#POLICY_REFUSE}、{@link DiskSpaceManager#POLICY_DELAY}
+     */
+    public OkDownload setDiskSpacePolicy(int policy) {
+        diskSpaceManager.setPolicy(policy);
+        return this;
+    }
+
+    /** 所有任务默认的重试策略，任务可以通过 DownloadTask#retryPolicy 单独设置，为 null 时不重试 */
+    public OkDownload setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public DiskSpaceManager getDiskSpaceManager() {
+        return diskSpaceManager;
+    }
+
     public Map<String, DownloadTask> getTaskMap() {
         return taskMap;
     }
@@ -212,11 +279,36 @@ public class OkDownload {
         return taskMap.remove(tag);
     }
 
+    /** 获取分组，不存在时创建，分组只保存在内存中，恢复任务后需要重新添加 */
+    public DownloadGroup group(String name) {
+        DownloadGroup group = groupMap.get(name);
+        if (group == null) {
+            DownloadGroup newGroup = new DownloadGroup(name);
+            group = groupMap.putIfAbsent(name, newGroup);
+            if (group == null) group = newGroup;
+        }
+        return group;
+    }
+
+    public DownloadGroup getGroup(String name) {
+        return groupMap.get(name);
+    }
+
+    public Map<String, DownloadGroup> getGroupMap() {
+        return groupMap;
+    }
+
+    /** 只删除分组，不会删除组内的任务，需要同时删除任务时使用 {@link DownloadGroup#remove(boolean)} */
+    public DownloadGroup removeGroup(String name) {
+        return groupMap.remove(name);
+    }
+
+    /** 所有任务结束后回调，包括分级通道中的任务 */
     public void addOnAllTaskEndListener(XExecutor.OnAllTaskEndListener listener) {
-        threadPool.getExecutor().addOnAllTaskEndListener(listener);
+        threadPool.addOnAllTaskEndListener(listener);
     }
 
     public void removeOnAllTaskEndListener(XExecutor.OnAllTaskEndListener listener) {
-        threadPool.getExecutor().removeOnAllTaskEndListener(listener);
+        threadPool.removeOnAllTaskEndListener(listener);
     }
 }
@@ -19,6 +19,8 @@ import com.lzy.okgo.db.UploadManager;
 import com.lzy.okgo.model.Progress;
 import com.lzy.okgo.request.base.Request;
 import com.lzy.okgo.utils.OkLogger;
+import com.lzy.okgo.utils.RateLimiter;
+import com.lzy.okserver.task.ProgressPersister;
 import com.lzy.okserver.task.XExecutor;
 import com.lzy.okserver.upload.UploadTask;
 import com.lzy.okserver.upload.UploadThreadPool;
@@ -42,6 +44,8 @@ public class OkUpload {
 
     private Map<String, UploadTask<?>> taskMap;         //所有任务
     private UploadThreadPool threadPool;                //上传的线程池
+    private ProgressPersister persister;                //上传进度的延迟写入
+    private RateLimiter rateLimiter;                    //所有上传任务共享的限速
 
     public static OkUpload getInstance() {
         return OkUploadHolder.instance;
@@ -53,6 +57,8 @@ public class OkUpload {
 
     private OkUpload() {
         threadPool = new UploadThreadPool();
+        persister = new ProgressPersister(UploadManager.getInstance(), null);
+        rateLimiter = new RateLimiter();
         taskMap = new LinkedHashMap<>();
 
         //校验数据的有效性，防止下载过程中退出，第二次进入的时候，由于状态没有更新导致的状态错误
@@ -172,6 +178,21 @@ public class OkUpload {
         return threadPool;
     }
 
+    /** 上传进度的延迟写入，可以设置写入数据库的间隔 */
+    public ProgressPersister getPersister() {
+        return persister;
+    }
+
+    /** 设置所有上传任务的总速度，单位 byte/s，小于等于0表示不限速，正在上传的任务立即生效 */
+    public OkUpload setRateLimit(long bytesPerSecond) {
+        rateLimiter.setRate(bytesPerSecond);
+        return this;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
     public Map<String, UploadTask<?>> getTaskMap() {
         return taskMap;
     }
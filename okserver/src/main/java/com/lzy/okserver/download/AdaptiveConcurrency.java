@@ -0,0 +1,207 @@
+package com.lzy.okserver.download;
+
+import com.lzy.okgo.model.Progress;
+import com.lzy.okgo.utils.HttpUtils;
+import com.lzy.okserver.OkDownload;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：自适应的同时下载数量，按 AIMD 的方式调整：
+ * 有任务排队并且增加并发后总速度明显上升时加 1，总速度明显下降或者单任务速度大幅下降时减半，
+ * 每次决策都会通过 OnDecisionListener 回调，便于统计和绘图。
+ * 只统计默认线程池中的任务，分级通道的任务不计入
+ * 修订历史：
+ * ================================================
+ */
+public class AdaptiveConcurrency {
+
+    public static final long DEFAULT_SAMPLE_INTERVAL = 3000;    //默认的采样间隔，单位 ms
+    private static final float GROW_THRESHOLD = 0.1f;           //总速度上升超过 10% 认为增加并发有效
+    private static final float CONGESTION_THRESHOLD = 0.2f;     //总速度下降超过 20% 认为网络拥塞
+    private static final float PER_TASK_DROP = 0.5f;            //单任务速度下降超过一半认为并发过多
+    private static final float DECREASE_FACTOR = 0.5f;          //拥塞时并发数减半
+
+    public static final int INCREASE = 1;                       //增加并发
+    public static final int DECREASE = 2;                       //减少并发
+    public static final int HOLD = 3;                           //保持不变
+
+    private final DownloadThreadPool threadPool;
+    private final List<OnDecisionListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, Long> lastSizes = new HashMap<>();
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> future;
+    private int minPoolSize;
+    private int maxPoolSize;
+    private long lastSampleTime;
+    private long lastThroughput = -1;                           //上次采样的总速度，-1 表示没有可比较的数据
+    private long lastPerTaskSpeed;
+    private int lastAction = HOLD;
+
+    AdaptiveConcurrency(DownloadThreadPool threadPool) {
+        this.threadPool = threadPool;
+    }
+
+    synchronized void start(int minPoolSize, int maxPoolSize, long sampleInterval) {
+        this.minPoolSize = minPoolSize;
+        this.maxPoolSize = maxPoolSize;
+        stop();
+        if (scheduler == null) scheduler = Executors.newSingleThreadScheduledExecutor();
+        future = scheduler.scheduleWithFixedDelay(this::sample, sampleInterval, sampleInterval, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+        lastSizes.clear();
+        lastSampleTime = 0;
+        lastThroughput = -1;
+        lastAction = HOLD;
+    }
+
+    public void addOnDecisionListener(OnDecisionListener listener) {
+        if (listener != null) listeners.add(listener);
+    }
+
+    public void removeOnDecisionListener(OnDecisionListener listener) {
+        listeners.remove(listener);
+    }
+
+    private synchronized void sample() {
+        if (future == null) return;
+        long now = System.currentTimeMillis();
+        //统计正在下载的任务在两次采样之间下载的字节数，新开始的任务从下次采样开始计算
+        long bytes = 0;
+        int active = 0;
+        Map<String, Long> sizes = new HashMap<>();
+        SingleFlight singleFlight = OkDownload.getInstance().getSingleFlight();
+        ThreadPoolExecutor executor = threadPool.getExecutor();
+        for (DownloadTask task : new ArrayList<>(OkDownload.getInstance().getTaskMap().values())) {
+            Progress progress = task.progress;
+            //合并下载的跟随者没有占用线程，进度也是复制过来的
+            if (progress.status != Progress.LOADING || singleFlight.isFollower(task)) continue;
+            //分级通道中的任务有自己的线程，不参与默认线程池并发数的调整
+            if (task.getExecutor() != executor) continue;
+            active++;
+            sizes.put(progress.tag, progress.currentSize);
+            Long lastSize = lastSizes.get(progress.tag);
+            if (lastSize != null && progress.currentSize > lastSize) bytes += progress.currentSize - lastSize;
+        }
+        lastSizes.clear();
+        lastSizes.putAll(sizes);
+        long diffTime = now - lastSampleTime;
+        boolean first = lastSampleTime == 0;
+        lastSampleTime = now;
+        if (first || diffTime <= 0) return;
+
+        long throughput = bytes * 1000 / diffTime;
+        long perTaskSpeed = active == 0 ? 0 : throughput / active;
+        int limit = threadPool.getCorePoolSize();
+        int queued = executor.getQueue().size();
+
+        int action = HOLD;
+        String reason;
+        int newLimit = limit;
+        if (active < limit) {
+            //并发数没有用满，速度的变化和并发数无关
+            reason = "not saturated";
+            throughput = -1;
+        } else if (lastThroughput > 0 && throughput < lastThroughput * (1 - CONGESTION_THRESHOLD)) {
+            reason = "throughput dropped";
+            action = DECREASE;
+        } else if (lastAction == INCREASE && lastPerTaskSpeed > 0 && perTaskSpeed < lastPerTaskSpeed * (1 - PER_TASK_DROP) //
+                && throughput < lastThroughput * (1 + GROW_THRESHOLD)) {
+            reason = "per task speed dropped";
+            action = DECREASE;
+        } else if (queued == 0) {
+            reason = "no waiting task";
+        } else if (limit >= maxPoolSize) {
+            reason = "reached max pool size";
+        } else if (lastAction == INCREASE && throughput < lastThroughput * (1 + GROW_THRESHOLD)) {
+            //上次增加并发没有带来明显的提升，先保持一个周期
+            reason = "no gain from last increase";
+        } else {
+            reason = "probe";
+            action = INCREASE;
+        }
+
+        if (action == INCREASE) {
+            newLimit = limit + 1;
+        } else if (action == DECREASE) {
+            newLimit = Math.max(minPoolSize, (int) (limit * DECREASE_FACTOR));
+            if (newLimit == limit) action = HOLD;
+        }
+        if (newLimit != limit) threadPool.applyCorePoolSize(newLimit);
+        lastThroughput = throughput;
+        lastPerTaskSpeed = perTaskSpeed;
+        lastAction = action;
+
+        final Decision decision = new Decision(now, action, limit, newLimit, active, queued, throughput, perTaskSpeed, reason);
+        if (!listeners.isEmpty()) {
+            HttpUtils.runOnUiThread(() -> {
+                for (OnDecisionListener listener : listeners) {
+                    listener.onDecision(decision);
+                }
+            });
+        }
+    }
+
+    /** 一次调整并发数的决策 */
+    public static class Decision {
+        public final long time;             //决策的时间
+        public final int action;            //INCREASE, DECREASE, HOLD
+        public final int oldPoolSize;       //调整前的并发数
+        public final int newPoolSize;       //调整后的并发数
+        public final int activeCount;       //正在下载的任务数
+        public final int queuedCount;       //排队等待的任务数
+        public final long throughput;       //总速度，byte/s，并发数没有用满时为 -1
+        public final long perTaskSpeed;     //平均每个任务的速度，byte/s
+        public final String reason;         //决策的原因
+
+        Decision(long time, int action, int oldPoolSize, int newPoolSize, int activeCount, int queuedCount, long throughput, long perTaskSpeed, String reason) {
+            this.time = time;
+            this.action = action;
+            this.oldPoolSize = oldPoolSize;
+            this.newPoolSize = newPoolSize;
+            this.activeCount = activeCount;
+            this.queuedCount = queuedCount;
+            this.throughput = throughput;
+            this.perTaskSpeed = perTaskSpeed;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return "Decision{" +//
+                    "time=" + time +//
+                    ", action=" + action +//
+                    ", oldPoolSize=" + oldPoolSize +//
+                    ", newPoolSize=" + newPoolSize +//
+                    ", activeCount=" + activeCount +//
+                    ", queuedCount=" + queuedCount +//
+                    ", throughput=" + throughput +//
+                    ", perTaskSpeed=" + perTaskSpeed +//
+                    ", reason='" + reason + '\'' +//
+                    '}';
+        }
+    }
+
+    public interface OnDecisionListener {
+        /** 每次采样后在主线程回调 */
+        void onDecision(Decision decision);
+    }
+}
@@ -0,0 +1,292 @@
+package com.lzy.okserver.download;
+
+import com.lzy.okgo.OkGo;
+import com.lzy.okgo.utils.IOUtils;
+import com.lzy.okgo.utils.RateLimiter;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Call;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：文件的分块校验清单，用于增量更新，原理和 zsync 相同：
+ * 每块有一个可以滚动计算的弱校验和一个 MD5 强校验，在本地的旧文件中逐字节滑动查找内容相同的块，
+ * 只有找不到的块才需要通过范围请求下载。最后一块不足块长度时用 0 补齐后计算
+ * <p>
+ * 清单为 json，blocks 中每块依次是 8 位十六进制的弱校验和 32 位十六进制的 MD5：
+ * {"length":文件长度,"blockSize":块长度,"sha256":"整个文件的摘要，可选","blocks":"..."}
+ * 修订历史：
+ * ================================================
+ */
+public class BlockManifest {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private static final int WEAK_LENGTH = 4;
+    private static final int STRONG_LENGTH = 16;
+
+    private final long length;
+    private final int blockSize;
+    private final String sha256;
+    private final int[] weaks;
+    private final byte[][] strongs;
+
+    private BlockManifest(long length, int blockSize, String sha256, int[] weaks, byte[][] strongs) {
+        this.length = length;
+        this.blockSize = blockSize;
+        this.sha256 = sha256;
+        this.weaks = weaks;
+        this.strongs = strongs;
+    }
+
+    /** 解析清单，格式错误时抛出 IllegalArgumentException */
+    public static BlockManifest parse(String json) {
+        try {
+            JSONObject object = new JSONObject(json);
+            long length = object.getLong("length");
+            int blockSize = object.getInt("blockSize");
+            String sha256 = object.has("sha256") ? object.getString("sha256") : null;
+            ByteString blocks = ByteString.decodeHex(object.getString("blocks").toLowerCase());
+            if (length < 0 || blockSize <= 0) throw new IllegalArgumentException("invalid length or block size");
+            int count = (int) ((length + blockSize - 1) / blockSize);
+            if (blocks.size() != count * (WEAK_LENGTH + STRONG_LENGTH)) {
+                throw new IllegalArgumentException("expected " + count + " blocks, but the manifest has " + blocks.size() + " bytes");
+            }
+            int[] weaks = new int[count];
+            byte[][] strongs = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                int start = i * (WEAK_LENGTH + STRONG_LENGTH);
+                ByteString weak = blocks.substring(start, start + WEAK_LENGTH);
+                weaks[i] = (weak.getByte(0) & 0xff) << 24 | (weak.getByte(1) & 0xff) << 16 | (weak.getByte(2) & 0xff) << 8 | (weak.getByte(3) & 0xff);
+                strongs[i] = blocks.substring(start + WEAK_LENGTH, start + WEAK_LENGTH + STRONG_LENGTH).toByteArray();
+            }
+            return new BlockManifest(length, blockSize, sha256, weaks, strongs);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("invalid block manifest", e);
+        }
+    }
+
+    /** 使用 OkGo 默认的 client 同步下载并解析清单，需要在子线程中调用 */
+    public static BlockManifest fetch(String url) throws IOException {
+        okhttp3.Request request = new okhttp3.Request.Builder().url(url).build();
+        return fetch(OkGo.getInstance().getOkHttpClient().newCall(request));
+    }
+
+    /**
+     * 执行清单的请求并解析，调用者可以使用自己的 client 和请求头，需要在子线程中调用
+     *
+     * @param limiters 读取清单时需要遵守的限速，null 会被忽略
+     */
+    public static BlockManifest fetch(Call call, RateLimiter... limiters) throws IOException {
+        Response response = call.execute();
+        ResponseBody body = response.body();
+        try {
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("failed to fetch the block manifest " + call.request().url() + ", http code is " + response.code());
+            }
+            BufferedSource source = body.source();
+            Buffer buffer = new Buffer();
+            long len;
+            while ((len = source.read(buffer, RateLimiter.chunkSize(8192, limiters))) != -1) {
+                RateLimiter.acquire(len, limiters);
+            }
+            return parse(buffer.readUtf8());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e);
+        } finally {
+            IOUtils.closeQuietly(body);
+        }
+    }
+
+    /** 为新版本的文件生成清单，一般在发布文件时调用 */
+    public static BlockManifest create(File file, int blockSize) throws IOException {
+        long length = file.length();
+        int count = (int) ((length + blockSize - 1) / blockSize);
+        int[] weaks = new int[count];
+        byte[][] strongs = new byte[count][];
+        MessageDigest md5 = newDigest("MD5");
+        MessageDigest sha256 = newDigest("SHA-256");
+        byte[] block = new byte[blockSize];
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            for (int i = 0; i < count; i++) {
+                int len = readFully(in, block, blockSize);
+                sha256.update(block, 0, len);
+                Arrays.fill(block, len, blockSize, (byte) 0);
+                weaks[i] = weakChecksum(block);
+                strongs[i] = md5.digest(block);
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return new BlockManifest(length, blockSize, ByteString.of(sha256.digest()).hex(), weaks, strongs);
+    }
+
+    public String toJson() {
+        byte[] blocks = new byte[weaks.length * (WEAK_LENGTH + STRONG_LENGTH)];
+        for (int i = 0; i < weaks.length; i++) {
+            int start = i * (WEAK_LENGTH + STRONG_LENGTH);
+            blocks[start] = (byte) (weaks[i] >>> 24);
+            blocks[start + 1] = (byte) (weaks[i] >>> 16);
+            blocks[start + 2] = (byte) (weaks[i] >>> 8);
+            blocks[start + 3] = (byte) weaks[i];
+            System.arraycopy(strongs[i], 0, blocks, start + WEAK_LENGTH, STRONG_LENGTH);
+        }
+        try {
+            JSONObject object = new JSONObject();
+            object.put("length", length);
+            object.put("blockSize", blockSize);
+            if (sha256 != null) object.put("sha256", sha256);
+            object.put("blocks", ByteString.of(blocks).hex());
+            return object.toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlockCount() {
+        return weaks.length;
+    }
+
+    /** 整个文件的 SHA-256，清单中没有时为 null */
+    public String getSha256() {
+        return sha256;
+    }
+
+    /** 第 index 块的实际长度，只有最后一块可能小于块长度 */
+    int getBlockLength(int index) {
+        return (int) Math.min(blockSize, length - (long) index * blockSize);
+    }
+
+    /** 下载的块是否和清单一致 */
+    boolean isBlockValid(int index, byte[] data, int len) {
+        MessageDigest md5 = newDigest("MD5");
+        md5.update(data, 0, len);
+        if (len < blockSize) md5.update(new byte[blockSize - len]);
+        return Arrays.equals(md5.digest(), strongs[index]);
+    }
+
+    /**
+     * 在本地文件中查找可以复用的块
+     *
+     * @return 每一块在本地文件中的位置，找不到时为 -1
+     */
+    long[] match(File file) throws IOException {
+        long[] offsets = new long[weaks.length];
+        Arrays.fill(offsets, -1);
+        Map<Integer, List<Integer>> index = new HashMap<>();
+        for (int i = 0; i < weaks.length; i++) {
+            List<Integer> list = index.get(weaks[i]);
+            if (list == null) index.put(weaks[i], list = new ArrayList<>(1));
+            list.add(i);
+        }
+        MessageDigest md5 = newDigest("MD5");
+        byte[] window = new byte[blockSize];
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+        try {
+            if (readFully(in, window, blockSize) < blockSize) return offsets;
+            long offset = 0;        //窗口在文件中的位置
+            int head = 0;           //窗口是环形的，head 是窗口第一个字节在数组中的位置
+            int a = 0, b = 0;
+            for (int i = 0; i < blockSize; i++) {
+                a += window[i] & 0xff;
+                b += (blockSize - i) * (window[i] & 0xff);
+            }
+            while (true) {
+                List<Integer> candidates = index.get(a & 0xffff | b << 16);
+                boolean matched = false;
+                if (candidates != null) {
+                    md5.update(window, head, blockSize - head);
+                    md5.update(window, 0, head);
+                    byte[] strong = md5.digest();
+                    for (int candidate : candidates) {
+                        if (Arrays.equals(strong, strongs[candidate])) {
+                            if (offsets[candidate] < 0) offsets[candidate] = offset;
+                            matched = true;
+                        }
+                    }
+                }
+                if (matched) {
+                    //找到一块后直接跳到下一块，不再逐字节滑动
+                    if (readFully(in, window, blockSize) < blockSize) break;
+                    offset += blockSize;
+                    head = 0;
+                    a = b = 0;
+                    for (int i = 0; i < blockSize; i++) {
+                        a += window[i] & 0xff;
+                        b += (blockSize - i) * (window[i] & 0xff);
+                    }
+                    continue;
+                }
+                int next = in.read();
+                if (next == -1) break;
+                int old = window[head] & 0xff;
+                window[head] = (byte) next;
+                head = head + 1 == blockSize ? 0 : head + 1;
+                a += next - old;
+                b += a - blockSize * old;
+                offset++;
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return offsets;
+    }
+
+    /** rsync 的弱校验，a 是所有字节的和，b 是每个字节乘以到块末尾距离的和，都只保留低 16 位 */
+    private static int weakChecksum(byte[] block) {
+        int a = 0, b = 0;
+        for (int i = 0; i < block.length; i++) {
+            a += block[i] & 0xff;
+            b += (block.length - i) * (block[i] & 0xff);
+        }
+        return a & 0xffff | b << 16;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int count = 0;
+        int len;
+        while (count < length && (len = in.read(buffer, count, length - count)) != -1) {
+            count += len;
+        }
+        return count;
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
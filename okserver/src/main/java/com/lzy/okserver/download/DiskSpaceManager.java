@@ -0,0 +1,132 @@
+package com.lzy.okserver.download;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：下载任务的磁盘空间准入控制，任务开始写文件前预留剩余需要的空间，
+ * 所有正在下载的任务还没有写入的字节都计入预留，空间不足时按照策略拒绝或者延迟任务
+ * 修订历史：
+ * ================================================
+ */
+public class DiskSpaceManager {
+
+    public static final int POLICY_NONE = 0;                        //不检查剩余空间
+    public static final int POLICY_REFUSE = 1;                      //空间不足时任务直接失败
+    public static final int POLICY_DELAY = 2;                       //空间不足时任务继续等待，其他任务释放预留后重试
+
+    public static final int RESERVED = 0;                           //预留成功
+    public static final int REFUSED = 1;                            //空间不足，拒绝
+    public static final int DELAYED = 2;                            //空间不足，延迟
+
+    public static final long DEFAULT_MIN_FREE_SPACE = 1024 * 1024 * 20; //默认保留给系统的空间
+    private static final long RETRY_INTERVAL = 10;                  //延迟的任务定时重试的间隔，单位 s
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor();
+
+    private final Map<DownloadTask, Reservation> reservations = new HashMap<>();
+    private final List<DownloadTask> delayedTasks = new ArrayList<>();
+    private volatile int policy = POLICY_NONE;
+    private volatile long minFreeSpace = DEFAULT_MIN_FREE_SPACE;
+    private boolean isRetryScheduled;
+
+    /** 空间不足时的策略，默认不检查 */
+    public void setPolicy(int policy) {
+        this.policy = policy;
+    }
+
+    public int getPolicy() {
+        return policy;
+    }
+
+    /** 下载后至少保留的剩余空间 */
+    public void setMinFreeSpace(long minFreeSpace) {
+        this.minFreeSpace = minFreeSpace;
+    }
+
+    /** 所有任务预留但还没有写入的空间 */
+    public synchronized long getReservedSpace() {
+        long reserved = 0;
+        for (Reservation reservation : reservations.values()) {
+            reserved += reservation.outstanding();
+        }
+        return reserved;
+    }
+
+    /**
+     * 为任务预留空间，设备上的剩余空间不区分不同的分区，所有任务的预留都会计算在内
+     *
+     * @param folder 下载文件所在的目录
+     * @param bytes  还需要写入的字节数
+     * @return RESERVED, REFUSED, DELAYED
+     */
+    synchronized int reserve(DownloadTask task, File folder, long bytes) {
+        reservations.remove(task);
+        if (policy == POLICY_NONE || bytes <= 0) return RESERVED;
+        long available = folder.getUsableSpace() - minFreeSpace - getReservedSpace();
+        if (available >= bytes) {
+            reservations.put(task, new Reservation(task, bytes));
+            return RESERVED;
+        }
+        if (policy == POLICY_REFUSE) return REFUSED;
+        if (!delayedTasks.contains(task)) delayedTasks.add(task);
+        if (!isRetryScheduled) {
+            isRetryScheduled = true;
+            SCHEDULER.schedule(this::retryDelayed, RETRY_INTERVAL, TimeUnit.SECONDS);
+        }
+        return DELAYED;
+    }
+
+    /** 任务结束或者已经真正分配了磁盘空间后释放预留，等待空间的任务会重新排队 */
+    void release(DownloadTask task) {
+        boolean released;
+        synchronized (this) {
+            released = reservations.remove(task) != null;
+        }
+        if (released) retryDelayed();
+    }
+
+    /** 延迟的任务被暂停或者删除 */
+    synchronized boolean cancel(DownloadTask task) {
+        return delayedTasks.remove(task);
+    }
+
+    private void retryDelayed() {
+        List<DownloadTask> tasks;
+        synchronized (this) {
+            isRetryScheduled = false;
+            if (delayedTasks.isEmpty()) return;
+            tasks = new ArrayList<>(delayedTasks);
+            delayedTasks.clear();
+        }
+        for (DownloadTask task : tasks) {
+            task.requeue();
+        }
+    }
+
+    private static class Reservation {
+        final DownloadTask task;
+        final long bytes;
+        final long baseSize;        //预留时已经下载的长度，之后下载的部分已经占用了磁盘，不再重复计算
+
+        Reservation(DownloadTask task, long bytes) {
+            this.task = task;
+            this.bytes = bytes;
+            this.baseSize = task.progress.currentSize;
+        }
+
+        long outstanding() {
+            long written = Math.max(task.progress.currentSize - baseSize, 0);
+            return Math.max(bytes - written, 0);
+        }
+    }
+}
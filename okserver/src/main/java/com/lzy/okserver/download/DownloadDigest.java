@@ -0,0 +1,161 @@
+package com.lzy.okserver.download;
+
+import android.text.TextUtils;
+
+import com.lzy.okgo.exception.IntegrityException;
+import com.lzy.okgo.model.HttpHeaders;
+import com.lzy.okgo.utils.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import okhttp3.Response;
+import okio.ByteString;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：下载过程中的摘要校验，写文件线程按顺序写入的数据直接参与计算，不需要下载完成后再读一遍文件，
+ * 不能按顺序计算的部分（续传前已经下载的数据、分段下载中后面的分段）在需要时从文件中补读
+ * 修订历史：
+ * ================================================
+ */
+public class DownloadDigest {
+
+    public static final String MD5 = "MD5";
+    public static final String SHA1 = "SHA-1";
+    public static final String SHA256 = "SHA-256";
+
+    private static final int BUFFER_SIZE = 1024 * 64;
+
+    private final String algorithm;
+    private final ByteString expected;
+    private final MessageDigest digest;
+    private long position;                  //已经参与计算的长度，只有从该位置开始的数据才能继续计算
+
+    private DownloadDigest(String algorithm, ByteString expected) throws NoSuchAlgorithmException {
+        this.algorithm = algorithm;
+        this.expected = expected;
+        this.digest = MessageDigest.getInstance(algorithm);
+    }
+
+    /**
+     * @param expected 期望的摘要，支持十六进制或者 base64
+     * @return 摘要无法解析或者算法不支持时返回 null
+     */
+    static DownloadDigest create(String algorithm, String expected) {
+        if (TextUtils.isEmpty(algorithm) || TextUtils.isEmpty(expected)) return null;
+        try {
+            int length = MessageDigest.getInstance(algorithm).getDigestLength();
+            ByteString value = decode(expected.trim(), length);
+            return value == null ? null : new DownloadDigest(algorithm, value);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 从响应头中读取摘要，优先使用 Digest 头中最强的算法，
+     * Content-MD5 只描述本次响应的内容，所以只在 200 的完整响应中使用
+     */
+    static DownloadDigest fromResponse(Response response) {
+        String header = response.header(HttpHeaders.HEAD_KEY_DIGEST);
+        if (!TextUtils.isEmpty(header)) {
+            String[] candidates = {"sha-256", SHA256, "sha", SHA1, "md5", MD5};
+            for (int i = 0; i < candidates.length; i += 2) {
+                String value = digestValue(header, candidates[i]);
+                if (value != null) {
+                    DownloadDigest digest = create(candidates[i + 1], value);
+                    if (digest != null) return digest;
+                }
+            }
+        }
+        String contentMd5 = response.header(HttpHeaders.HEAD_KEY_CONTENT_MD5);
+        if (response.code() == 200 && !TextUtils.isEmpty(contentMd5)) {
+            return create(MD5, contentMd5);
+        }
+        return null;
+    }
+
+    /** 相同期望值的新的计算过程 */
+    DownloadDigest newDigest() {
+        try {
+            return new DownloadDigest(algorithm, expected);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** 是否是同一个期望的摘要，用于暂停后继续计算 */
+    boolean isSame(DownloadDigest other) {
+        return other != null && algorithm.equals(other.algorithm) && expected.equals(other.expected);
+    }
+
+    synchronized long getPosition() {
+        return position;
+    }
+
+    /** 写文件线程调用，只有紧接着已计算位置的数据才参与计算 */
+    synchronized void update(ByteBuffer buffer, long offset) {
+        if (offset != position) return;
+        int length = buffer.remaining();
+        digest.update(buffer.duplicate());
+        position += length;
+    }
+
+    /** 从文件中补读 [position, end) 的数据参与计算 */
+    synchronized void catchUp(File file, long end) throws IOException {
+        if (position >= end) return;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (position < end) {
+                buffer.clear();
+                if (end - position < buffer.capacity()) buffer.limit((int) (end - position));
+                int len = channel.read(buffer, position);
+                if (len == -1) throw new IOException("the file " + file + " is shorter than " + end);
+                buffer.flip();
+                digest.update(buffer);
+                position += len;
+            }
+        } finally {
+            IOUtils.closeQuietly(raf);
+        }
+    }
+
+    /** 所有数据计算完成后校验，不一致时抛出 IntegrityException */
+    synchronized void verify() throws IntegrityException {
+        ByteString actual = ByteString.of(digest.digest());
+        if (!actual.equals(expected)) {
+            throw IntegrityException.MISMATCH(algorithm, expected.hex(), actual.hex());
+        }
+    }
+
+    private static ByteString decode(String value, int length) {
+        try {
+            if (value.length() == length * 2) return ByteString.decodeHex(value.toLowerCase());
+        } catch (IllegalArgumentException e) {
+            //不是十六进制，尝试 base64
+        }
+        ByteString bytes = ByteString.decodeBase64(value);
+        return bytes != null && bytes.size() == length ? bytes : null;
+    }
+
+    /** 解析 Digest 头，格式为 sha-256=xxx,md5=xxx */
+    private static String digestValue(String header, String name) {
+        for (String item : header.split(",")) {
+            int index = item.indexOf('=');
+            if (index > 0 && item.substring(0, index).trim().equalsIgnoreCase(name)) {
+                return item.substring(index + 1).trim();
+            }
+        }
+        return null;
+    }
+}
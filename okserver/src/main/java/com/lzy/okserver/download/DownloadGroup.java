@@ -0,0 +1,275 @@
+package com.lzy.okserver.download;
+
+import com.lzy.okgo.model.Progress;
+import com.lzy.okserver.OkDownload;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：下载分组，把多个任务作为一个整体管理，汇总进度、速度和剩余时间，
+ * 汇总数据在成员的回调中按差值增量更新，开始、暂停、删除只遍历组内的任务，所有成员完成时回调一次
+ * 修订历史：
+ * ================================================
+ */
+public class DownloadGroup {
+
+    /** 分组的回调，在主线程中调用 */
+    public interface GroupListener {
+        /** 任意成员的进度或者状态变化 */
+        void onProgress(DownloadGroup group);
+
+        /** 所有成员都已经完成 */
+        void onFinish(DownloadGroup group);
+    }
+
+    private final String name;
+    private final Map<String, Member> members = new LinkedHashMap<>();     //组内的任务，key 为任务的 tag
+    private final List<GroupListener> listeners = new CopyOnWriteArrayList<>();
+    private final DownloadListener memberListener;
+    private long totalSize;             //所有成员的总长度，长度未知的成员按已下载的长度计算
+    private long currentSize;
+    private long speed;
+    private int finishedCount;
+    private int errorCount;
+    private boolean isFinished;         //已经回调过完成，成员重新下载后重置
+
+    public DownloadGroup(String name) {
+        this.name = name;
+        memberListener = new DownloadListener(DownloadGroup.class.getName() + "#" + name) {
+            @Override
+            public void onStart(Progress progress) {
+                update(progress);
+            }
+
+            @Override
+            public void onProgress(Progress progress) {
+                update(progress);
+            }
+
+            @Override
+            public void onError(Progress progress) {
+                update(progress);
+            }
+
+            @Override
+            public void onFinish(File file, Progress progress) {
+                update(progress);
+            }
+
+            @Override
+            public void onRemove(Progress progress) {
+                detach(progress.tag);
+            }
+        };
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** 添加任务到分组，任务删除时自动离开分组 */
+    public DownloadGroup add(DownloadTask task) {
+        synchronized (this) {
+            if (members.containsKey(task.progress.tag)) return this;
+            Member member = new Member(task);
+            members.put(task.progress.tag, member);
+            account(member, 1);
+            if (finishedCount < members.size()) isFinished = false;
+        }
+        task.register(memberListener);
+        return this;
+    }
+
+    public DownloadGroup addAll(Collection<DownloadTask> tasks) {
+        for (DownloadTask task : tasks) {
+            add(task);
+        }
+        return this;
+    }
+
+    /** 任务离开分组，不会删除任务 */
+    public boolean remove(DownloadTask task) {
+        if (detach(task.progress.tag) == null) return false;
+        task.unRegister(memberListener);
+        return true;
+    }
+
+    public synchronized List<DownloadTask> getTasks() {
+        List<DownloadTask> tasks = new ArrayList<>(members.size());
+        for (Member member : members.values()) {
+            tasks.add(member.task);
+        }
+        return tasks;
+    }
+
+    public synchronized int size() {
+        return members.size();
+    }
+
+    public synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    public synchronized long getCurrentSize() {
+        return currentSize;
+    }
+
+    /** 所有成员的速度之和，单位 byte/s */
+    public synchronized long getSpeed() {
+        return speed;
+    }
+
+    public synchronized float getFraction() {
+        return totalSize <= 0 ? 0 : currentSize * 1.0f / totalSize;
+    }
+
+    /** 按当前速度估算的剩余时间，单位 ms，没有速度时返回 -1 */
+    public synchronized long getEta() {
+        if (speed <= 0) return -1;
+        return Math.max(totalSize - currentSize, 0) * 1000 / speed;
+    }
+
+    public synchronized int getFinishedCount() {
+        return finishedCount;
+    }
+
+    public synchronized int getErrorCount() {
+        return errorCount;
+    }
+
+    /** 所有成员是否都已经完成 */
+    public synchronized boolean isFinished() {
+        return !members.isEmpty() && finishedCount == members.size();
+    }
+
+    /** 开始组内的所有任务 */
+    public void start() {
+        for (DownloadTask task : getTasks()) {
+            task.start();
+        }
+    }
+
+    /** 暂停组内的所有任务，先暂停未开始的任务，避免正在下载的任务暂停后排队的任务开始 */
+    public void pause() {
+        List<DownloadTask> tasks = getTasks();
+        for (DownloadTask task : tasks) {
+            if (task.progress.status != Progress.LOADING) task.pause();
+        }
+        for (DownloadTask task : tasks) {
+            if (task.progress.status == Progress.LOADING) task.pause();
+        }
+    }
+
+    /**
+     * 删除组内的所有任务和分组本身
+     *
+     * @param isDeleteFile 删除任务是否删除文件
+     */
+    public void remove(boolean isDeleteFile) {
+        List<DownloadTask> tasks = getTasks();
+        for (DownloadTask task : tasks) {
+            if (task.progress.status != Progress.LOADING) task.remove(isDeleteFile);
+        }
+        for (DownloadTask task : tasks) {
+            if (task.progress.status == Progress.LOADING) task.remove(isDeleteFile);
+        }
+        OkDownload.getInstance().removeGroup(name);
+    }
+
+    public void addListener(GroupListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(GroupListener listener) {
+        listeners.remove(listener);
+    }
+
+    /** 成员离开分组，剩下的成员可能已经全部完成 */
+    private Member detach(String tag) {
+        Member member;
+        boolean finishedNow;
+        synchronized (this) {
+            member = members.remove(tag);
+            if (member == null) return null;
+            account(member, -1);
+            finishedNow = checkFinished();
+        }
+        dispatch(finishedNow);
+        return member;
+    }
+
+    /** 成员的回调，去掉旧的快照再加上新的快照 */
+    private void update(Progress progress) {
+        boolean finishedNow;
+        synchronized (this) {
+            Member member = members.get(progress.tag);
+            if (member == null) return;
+            account(member, -1);
+            member.snapshot(progress);
+            account(member, 1);
+            finishedNow = checkFinished();
+        }
+        dispatch(finishedNow);
+    }
+
+    /**
+     * 需要持有锁
+     *
+     * @return 是否刚刚变为全部完成，需要回调 onFinish
+     */
+    private boolean checkFinished() {
+        boolean finished = !members.isEmpty() && finishedCount == members.size();
+        boolean finishedNow = !isFinished && finished;
+        isFinished = finished;
+        return finishedNow;
+    }
+
+    private void dispatch(boolean finishedNow) {
+        for (GroupListener listener : listeners) {
+            listener.onProgress(this);
+        }
+        if (finishedNow) {
+            for (GroupListener listener : listeners) {
+                listener.onFinish(this);
+            }
+        }
+    }
+
+    private void account(Member member, int sign) {
+        totalSize += sign * member.totalSize;
+        currentSize += sign * member.currentSize;
+        speed += sign * member.speed;
+        if (member.status == Progress.FINISH) finishedCount += sign;
+        if (member.status == Progress.ERROR) errorCount += sign;
+    }
+
+    private static class Member {
+        final DownloadTask task;
+        long totalSize;
+        long currentSize;
+        long speed;
+        int status;
+
+        Member(DownloadTask task) {
+            this.task = task;
+            snapshot(task.progress);
+        }
+
+        void snapshot(Progress progress) {
+            boolean isKnown = progress.totalSize > 0 && progress.totalSize != Long.MAX_VALUE;
+            currentSize = progress.currentSize;
+            totalSize = isKnown ? progress.totalSize : currentSize;
+            speed = progress.speed;
+            status = progress.status;
+        }
+    }
+}
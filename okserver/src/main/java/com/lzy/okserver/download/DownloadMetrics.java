@@ -0,0 +1,94 @@
+package com.lzy.okserver.download;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：下载任务的统计数据，可以在任意线程读取
+ * 修订历史：
+ * ================================================
+ */
+public class DownloadMetrics {
+
+    private final AtomicLong networkBlockedNanos = new AtomicLong();    //网络线程等待空闲缓冲块的时间
+    private final AtomicLong diskBlockedNanos = new AtomicLong();       //写文件线程等待网络数据的时间
+    private final AtomicInteger retryCount = new AtomicInteger();       //失败后自动重试的次数
+    private final AtomicInteger reconnectCount = new AtomicInteger();   //卡顿后重新连接的次数
+    private final AtomicInteger failoverCount = new AtomicInteger();    //切换到其他镜像地址的次数
+    private final AtomicLong reusedBytes = new AtomicLong();            //增量更新时从旧文件中复用的字节数
+
+    void addNetworkBlocked(long nanos) {
+        networkBlockedNanos.addAndGet(nanos);
+    }
+
+    void addDiskBlocked(long nanos) {
+        diskBlockedNanos.addAndGet(nanos);
+    }
+
+    void addRetry() {
+        retryCount.incrementAndGet();
+    }
+
+    /** 失败后自动重试的总次数 */
+    public int getRetryCount() {
+        return retryCount.get();
+    }
+
+    void addReconnect() {
+        reconnectCount.incrementAndGet();
+    }
+
+    /** 连接卡顿后重新连接的总次数 */
+    public int getReconnectCount() {
+        return reconnectCount.get();
+    }
+
+    void addFailover() {
+        failoverCount.incrementAndGet();
+    }
+
+    /** 出错或者卡顿后切换到其他镜像地址的总次数 */
+    public int getFailoverCount() {
+        return failoverCount.get();
+    }
+
+    void addReusedBytes(long bytes) {
+        reusedBytes.addAndGet(bytes);
+    }
+
+    /** 增量更新时从本地旧文件中复用、不需要下载的字节数 */
+    public long getReusedBytes() {
+        return reusedBytes.get();
+    }
+
+    /** 网络线程因为缓冲区已满而阻塞的总时间，单位 ms，越大说明写文件越慢 */
+    public long getNetworkBlockedTime() {
+        return TimeUnit.NANOSECONDS.toMillis(networkBlockedNanos.get());
+    }
+
+    /** 写文件线程因为没有数据而阻塞的总时间，单位 ms，越大说明网络越慢 */
+    public long getDiskBlockedTime() {
+        return TimeUnit.NANOSECONDS.toMillis(diskBlockedNanos.get());
+    }
+
+    /** 下载速度是否受限于磁盘写入 */
+    public boolean isDiskBound() {
+        return networkBlockedNanos.get() > diskBlockedNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadMetrics{" +//
+                "networkBlockedTime=" + getNetworkBlockedTime() +//
+                ", diskBlockedTime=" + getDiskBlockedTime() +//
+                ", retryCount=" + getRetryCount() +//
+                ", reconnectCount=" + getReconnectCount() +//
+                ", failoverCount=" + getFailoverCount() +//
+                ", reusedBytes=" + getReusedBytes() +//
+                '}';
+    }
+}
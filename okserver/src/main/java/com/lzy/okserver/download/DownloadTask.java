@@ -15,35 +15,62 @@
  */
 package com.lzy.okserver.download;
 
-import android.content.ContentValues;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 import android.text.TextUtils;
 import android.util.ArrayMap;
 
 import com.lzy.okgo.db.DownloadManager;
+import com.lzy.okgo.db.SegmentManager;
 import com.lzy.okgo.exception.HttpException;
+import com.lzy.okgo.exception.IntegrityException;
 import com.lzy.okgo.exception.OkGoException;
+import com.lzy.okgo.exception.StalledException;
 import com.lzy.okgo.exception.StorageException;
 import com.lzy.okgo.model.HttpHeaders;
 import com.lzy.okgo.model.Progress;
+import com.lzy.okgo.model.Segment;
 import com.lzy.okgo.request.base.Request;
+import com.lzy.okgo.utils.ArchiveExtractor;
 import com.lzy.okgo.utils.HttpUtils;
 import com.lzy.okgo.utils.IOUtils;
 import com.lzy.okgo.utils.OkLogger;
+import com.lzy.okgo.utils.RateLimiter;
 import com.lzy.okserver.OkDownload;
+import com.lzy.okserver.task.PriorityBlockingQueue;
 import com.lzy.okserver.task.PriorityRunnable;
+import com.lzy.okserver.task.ScheduleState;
 
-import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import okhttp3.Call;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Sink;
+import okio.Timeout;
 
 /**
  * ================================================
@@ -59,15 +86,76 @@ import okhttp3.ResponseBody;
  * 返回的 code 200 和 206 的区别
  * 修复 断点续传中，文件更改的bug.
  * 使用 progress 的eTag 作为文件是否更改的标志位
+ * <p>
+ * 2026-10-17
+ * 新增分段下载，服务器支持范围请求时，使用多个连接并行下载同一个文件
+ * 分段的断点保存在 segment 表中，续传时只下载缺失的字节区间
+ * 下载中的进度交给 ProgressPersister 合并后批量写入，状态变化时立即写入
+ * 支持任务和全局的限速，在读网络的循环中按块获取许可
+ * 开启 SingleFlight 后，相同资源的任务只由一个任务下载，其余任务同步进度并在完成后得到各自的文件
+ * 支持在写文件的同时计算摘要，完成时校验，不一致时返回 IntegrityException
+ * 支持预分配文件空间，开始写文件前通过 DiskSpaceManager 预留磁盘空间
+ * 支持失败后按 RetryPolicy 自动重试，等待期间让出下载线程，到时间后重新排队，从保存的断点继续
+ * 支持卡顿检测，连接速度长时间低于下限时断开，从断点处重新连接
+ * 支持多个镜像地址，出错或者卡顿时切换到下一个，可以同时请求两个镜像使用更快的一个，ETag 或者 Last-Modified 一致时跨镜像续传
+ * 支持根据分块清单增量更新，复用本地旧文件中没有改变的块，只下载改变的部分
+ * 新增 refresh()，对已经完成的文件发送条件请求，服务器返回 304 时直接使用已有的文件
+ * 支持边下载边解压 zip、tar、tar.gz，可以不保存压缩包，进度按照读取的压缩数据计算
+ * 支持不写文件，直接把数据交给调用者的 Sink、OutputStream 或者回调，暂停后从已经交出的位置继续
+ * 新增可读水位，下载完成前就可以阻塞或者异步地读取已经连续写入文件的部分
+ * 排队时按剩余长度进入线程池的分级通道，长度未知时可以先用 HEAD 请求获取
+ * 暂停和删除时立即取消正在进行的连接，下载线程不需要等到读超时才结束，断点保存到已经写入文件的位置
+ * 状态通过 CAS 转换，开始、暂停、删除可以在任意线程中频繁调用，同一个任务同一时间只有一个下载线程
+ * 新增 getQueueWaitTime()，线程池开启优先级老化时排队越久的任务越先执行
+ * 排队中修改优先级会立即调整在队列中的位置，线程池开启抢占时高优先级的任务可以让正在下载的低优先级任务回到队列
  */
 public class DownloadTask implements Runnable {
 
-    private static final int BUFFER_SIZE = 1024 * 8;
+    private static final int MAX_THREAD_COUNT = 8;                  //分段下载的最大连接数
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;       //分段下载时每段的最小长度
+    private static final long STREAM_CHUNK_SIZE = 1024 * 64;        //流式下载时每次交给调用者的最大字节数
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor();
 
     public Progress progress;
     public Map<Object, DownloadListener> listeners;
-    private ThreadPoolExecutor executor;
-    private PriorityRunnable priorityRunnable;
+    private volatile ThreadPoolExecutor executor;                   //最近一次排队的线程池，默认的或者分级通道的
+    private volatile PriorityRunnable priorityRunnable;
+    private final ScheduleState scheduleState = new ScheduleState(); //保证同一时间只有一个下载线程
+    private int threadCount = 1;                                    //分段下载的连接数，1 表示单连接下载
+    private List<Segment> segments;                                 //分段下载时各分段的进度
+    private DownloadMetrics metrics = new DownloadMetrics();          //下载过程的统计数据
+    private RateLimiter rateLimiter = new RateLimiter();            //当前任务的限速，所有分段共享
+    private DownloadDigest expectedDigest;                          //设置的期望摘要
+    private boolean isDigestFromResponse;                           //没有设置期望摘要时，是否使用响应头中的摘要
+    private DownloadDigest digest;                                  //正在计算的摘要，暂停后继续使用
+    private boolean isPreallocate;                                  //文件长度已知时是否预分配空间
+    private RetryPolicy retryPolicy;                                //失败后的重试策略，为 null 时使用全局的策略
+    private int retries;                                            //已经重试的次数，重新开始或者被抢占时清零
+    private Future<?> retryFuture;                                  //等待重试的定时任务，到时间后重新排队
+    private StallDetector stallDetector;                            //连接的卡顿检测，为 null 时不检测
+    private List<String> mirrors;                                   //同一个文件的镜像地址，为 null 时只使用请求的地址
+    private boolean isRaceMirrors;                                  //是否同时请求当前和下一个镜像
+    private int mirrorIndex;                                        //当前使用的镜像
+    private int mirrorFailures;                                     //本轮已经失败的镜像数
+    private long mirrorStartSize;                                   //切换到当前镜像时已经下载的长度
+    private String validatedUrl;                                    //已下载部分来自的地址，为 null 时表示未知
+    private String lastModified;                                    //已下载部分的 Last-Modified，镜像之间的 ETag 通常不同
+    private File deltaBase;                                         //增量更新时本地的旧文件
+    private BlockManifest deltaManifest;                            //新文件的分块清单
+    private String deltaManifestUrl;                                //分块清单的地址，没有设置清单时在下载线程中获取
+    private String refreshValidator;                                //刷新已完成的文件时使用的 ETag 或者 Last-Modified
+    private String extractFolder;                                   //边下载边解压的目标文件夹，为 null 时不解压
+    private boolean isKeepArchive;                                  //解压时是否同时保存压缩包
+    private Sink streamSink;                                        //流式下载的目标，为 null 时下载到文件
+    private final Watermark watermark;                              //文件从开头连续写入的字节数
+    private boolean isExecuting;                                    //是否在下载线程中执行，只有这时的错误才会重试
+    private Throwable retryError;                                   //本次执行中可以重试的错误
+    private int responseCode;                                       //本次执行的响应码，没有响应时为 0
+    private long sizeHint = -1;                                     //调用者提供或者 HEAD 请求获取的文件长度，用于选择分级通道
+    private boolean isSizeProbed;                                   //是否已经发送过 HEAD 请求，失败后不再重复获取
+    private Call probeCall;                                         //正在获取长度的 HEAD 请求
+    private volatile CallGroup activeCalls;                         //本次执行中发起的所有连接，暂停时全部取消
 
     public DownloadTask(String tag, Request<File, ? extends Request> request) {
         HttpUtils.checkNotNull(tag, "tag == null");
@@ -79,6 +167,7 @@ public class DownloadTask implements Runnable {
         progress.totalSize = -1;
         progress.request = request;
 
+        watermark = new Watermark(progress, 0);
         executor = OkDownload.getInstance().getThreadPool().getExecutor();
         listeners = new HashMap<>();
     }
@@ -86,6 +175,15 @@ public class DownloadTask implements Runnable {
     public DownloadTask(Progress progress) {
         HttpUtils.checkNotNull(progress, "progress == null");
         this.progress = progress;
+        //恢复的任务，已经写入文件的部分可以直接读取
+        long available;
+        if (progress.status == Progress.FINISH) {
+            available = progress.totalSize;
+        } else {
+            List<Segment> savedSegments = SegmentManager.getInstance().get(progress.tag);
+            available = savedSegments.isEmpty() ? progress.currentSize : Segment.contiguousSize(savedSegments);
+        }
+        watermark = new Watermark(progress, available);
         executor = OkDownload.getInstance().getThreadPool().getExecutor();
         listeners = new ArrayMap<>();
     }
@@ -117,8 +215,39 @@ public class DownloadTask implements Runnable {
         return this;
     }
 
+    /** 任务的优先级，正在排队时立即调整在队列中的位置，正在下载时影响之后的排队和抢占 */
     public DownloadTask priority(int priority) {
         progress.priority = priority;
+        reprioritize(priority);
+        return this;
+    }
+
+    /** 预先知道的文件长度，单位 byte，下载开始前用于选择线程池的分级通道，下载中以服务器返回的长度为准 */
+    public DownloadTask sizeHint(long size) {
+        sizeHint = size;
+        return this;
+    }
+
+    /**
+     * 最近一次在线程池中排队的时间，单位 ms，还在排队时返回已经等待的时间，
+     * 有空闲线程时直接执行，不经过队列，返回 0
+     *
+     * @return 还没有放入过线程池时返回 -1
+     */
+    public long getQueueWaitTime() {
+        PriorityRunnable runnable = priorityRunnable;
+        if (runnable == null) return -1;
+        return Math.max(runnable.getWaitTime(), 0);
+    }
+
+    /**
+     * 分段下载的连接数，默认1即单连接下载，范围1-8之间。
+     * 只有服务器支持范围请求并且返回了文件长度时才会分段下载，否则仍然使用单连接下载
+     */
+    public DownloadTask threadCount(int threadCount) {
+        if (threadCount <= 0) threadCount = 1;
+        if (threadCount > MAX_THREAD_COUNT) threadCount = MAX_THREAD_COUNT;
+        this.threadCount = threadCount;
         return this;
     }
 
@@ -150,6 +279,217 @@ public class DownloadTask implements Runnable {
         return this;
     }
 
+    /** 设置当前任务的下载速度，单位 byte/s，小于等于0表示不限速，下载过程中也可以修改 */
+    public DownloadTask rateLimit(long bytesPerSecond) {
+        rateLimiter.setRate(bytesPerSecond);
+        return this;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * 设置文件的期望摘要，下载完成时校验
+     *
+     * @param algorithm 摘要算法，例如 {@link DownloadDigest#MD5}、{@link DownloadDigest#SHA1}、{@link DownloadDigest#SHA256}
+     * @param expected  期望的摘要，十六进制或者 base64
+     */
+    public DownloadTask digest(String algorithm, String expected) {
+        DownloadDigest digest = DownloadDigest.create(algorithm, expected);
+        if (digest == null) throw new IllegalArgumentException("unsupported digest " + algorithm + ": " + expected);
+        expectedDigest = digest;
+        return this;
+    }
+
+    /** 设置当前任务的重试策略，优先于 OkDownload 中的全局策略 */
+    public DownloadTask retryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * 开启卡顿检测，连接的速度在 window 时间内一直低于 minSpeed 时断开，从断点处重新连接
+     *
+     * @param minSpeed 速度的下限，单位 byte/s
+     * @param window   检测的时间窗口，单位 ms
+     */
+    public DownloadTask stallDetection(long minSpeed, long window) {
+        return stallDetector(new StallDetector(minSpeed, window));
+    }
+
+    /** 设置卡顿检测，为 null 时关闭 */
+    public DownloadTask stallDetector(StallDetector stallDetector) {
+        this.stallDetector = stallDetector;
+        return this;
+    }
+
+    /**
+     * 设置同一个文件的镜像地址，请求本身的地址是第一个，出错或者卡顿时按顺序切换到下一个，
+     * 所有地址都失败后才按照重试策略等待。镜像之间的 ETag 或者 Last-Modified 一致时继续使用已经下载的部分，否则重新下载
+     */
+    public DownloadTask mirrors(String... urls) {
+        List<String> list = new ArrayList<>();
+        list.add(progress.request.getBaseUrl());
+        for (String url : urls) {
+            if (!TextUtils.isEmpty(url) && !list.contains(url)) list.add(url);
+        }
+        mirrors = list.size() > 1 ? list : null;
+        mirrorIndex = 0;
+        mirrorFailures = 0;
+        return this;
+    }
+
+    /** 每次连接时同时请求当前和下一个镜像，使用最先收到数据的一个，需要先设置 {@link #mirrors(String...)} */
+    public DownloadTask raceMirrors(boolean race) {
+        isRaceMirrors = race;
+        return this;
+    }
+
+    /**
+     * 增量更新，根据新文件的分块清单复用本地旧文件中没有改变的块，只用范围请求下载改变的部分。
+     * 旧文件不存在、清单获取失败或者没有可以复用的块时仍然下载整个文件
+     *
+     * @param baseFile 本地的旧文件，可以就是下载的目标文件
+     */
+    public DownloadTask delta(File baseFile, BlockManifest manifest) {
+        deltaBase = baseFile;
+        deltaManifest = manifest;
+        deltaManifestUrl = null;
+        return this;
+    }
+
+    /** 增量更新，分块清单在下载开始时从 manifestUrl 获取 */
+    public DownloadTask delta(File baseFile, String manifestUrl) {
+        deltaBase = baseFile;
+        deltaManifest = null;
+        deltaManifestUrl = manifestUrl;
+        return this;
+    }
+
+    /**
+     * 边下载边解压 zip、tar、tar.gz 到 folder，压缩包的类型根据文件头自动判断，进度按照读取的压缩数据计算。
+     * 解压的下载每次都从头开始，不会断点续传，也不会分段下载
+     *
+     * @param keepArchive 是否同时保存压缩包，为 false 时完成回调中得到的是解压的文件夹
+     */
+    public DownloadTask extractTo(String folder, boolean keepArchive) {
+        extractFolder = folder;
+        isKeepArchive = keepArchive;
+        return this;
+    }
+
+    /** 流式下载时每一块数据的回调，在下载线程中调用，阻塞时下载也会暂停读取网络 */
+    public interface ChunkConsumer {
+        void onChunk(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    /**
+     * 流式下载，数据不写入文件，按顺序写入 sink，sink 写入阻塞时不会继续读取网络。
+     * 暂停或者出错后重新开始时从已经写入的位置继续，服务器不支持范围请求时返回错误，不会重复写入。
+     * 下载完成或者删除任务时关闭 sink，完成回调中的文件为 null。分段下载、摘要、增量更新和解压对流式下载无效
+     */
+    public DownloadTask streamTo(Sink sink) {
+        streamSink = sink;
+        return this;
+    }
+
+    /** 流式下载到 OutputStream，参考 {@link #streamTo(Sink)} */
+    public DownloadTask streamTo(OutputStream out) {
+        return streamTo(Okio.sink(out));
+    }
+
+    /** 流式下载，每一块数据交给 consumer，参考 {@link #streamTo(Sink)} */
+    public DownloadTask streamTo(final ChunkConsumer consumer) {
+        return streamTo(new Sink() {
+            private final byte[] buffer = new byte[(int) STREAM_CHUNK_SIZE];
+
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                while (byteCount > 0) {
+                    int len = source.read(buffer, 0, (int) Math.min(buffer.length, byteCount));
+                    consumer.onChunk(buffer, 0, len);
+                    byteCount -= len;
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public Timeout timeout() {
+                return Timeout.NONE;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    /** 可读水位变化的回调，在主线程中调用 */
+    public interface OnAvailableListener {
+        void onAvailable(long availableSize);
+    }
+
+    /** 文件从开头连续写入的字节数，这部分数据已经在文件中，可以在下载完成前读取 */
+    public long getAvailableSize() {
+        return watermark.get();
+    }
+
+    /**
+     * 阻塞等待文件的 [0, end) 写入完成
+     *
+     * @param timeout 最长等待的时间，单位 ms，小于等于0表示一直等待
+     * @return 是否已经可读，超时或者任务暂停、出错、删除时返回 false
+     */
+    public boolean awaitAvailable(long end, long timeout) throws InterruptedException {
+        return watermark.await(end, timeout);
+    }
+
+    /**
+     * 文件的 [0, end) 写入完成后在主线程回调，任务暂停、出错、删除时也会回调，这时的水位小于 end
+     */
+    public void whenAvailable(long end, OnAvailableListener listener) {
+        HttpUtils.checkNotNull(listener, "listener == null");
+        watermark.whenAvailable(end, listener);
+    }
+
+    /**
+     * 从 position 开始读取正在下载的文件，数据还没有写入时阻塞等待，下载完成后读到文件末尾返回 -1，
+     * 任务暂停、出错、删除时抛出 IOException。只适用于下载到文件的任务，不能在主线程中读取
+     */
+    public InputStream openInputStream(long position) {
+        return new Watermark.Reader(this, watermark, position);
+    }
+
+    /** 当前正在写入的文件，完成后临时文件会改名为目标文件 */
+    File getDownloadFile() {
+        if (!TextUtils.isEmpty(progress.tempFileName)) {
+            File temp = new File(progress.folder, progress.tempFileName);
+            if (temp.exists() || progress.filePath == null) return temp;
+        }
+        return new File(progress.filePath);
+    }
+
+    /** 文件长度已知时一次性分配整个文件的空间，减少碎片，空间不足时在开始下载前就会失败 */
+    public DownloadTask preallocate(boolean preallocate) {
+        isPreallocate = preallocate;
+        return this;
+    }
+
+    /** 没有设置期望摘要时，使用响应头 Digest 或者 Content-MD5 中的摘要校验 */
+    public DownloadTask digestFromResponse(boolean enabled) {
+        isDigestFromResponse = enabled;
+        return this;
+    }
+
+    /** 下载过程的统计数据，可以用来判断下载速度受限于网络还是磁盘 */
+    public DownloadMetrics getMetrics() {
+        return metrics;
+    }
+
     public DownloadTask register(DownloadListener listener) {
         if (listener != null) {
             HttpUtils.runOnUiThread(() -> {
@@ -177,12 +517,19 @@ public class DownloadTask implements Runnable {
         if (OkDownload.getInstance().getTask(progress.tag) == null || DownloadManager.getInstance().get(progress.tag) == null) {
             throw new IllegalStateException("you must call DownloadTask#save() before DownloadTask#start()！");
         }
-        if (progress.status == Progress.NONE || progress.status == Progress.PAUSE || progress.status == Progress.ERROR) {
+        int status;
+        while (true) {
+            status = progress.status;
+            if (status != Progress.NONE && status != Progress.PAUSE && status != Progress.ERROR) break;
+            if (!progress.compareAndSetStatus(status, Progress.WAITING)) continue;
+            retries = 0;
             postOnStart(progress);
             postWaiting(progress);
-            priorityRunnable = new PriorityRunnable(progress.priority, this);
-            executor.execute(priorityRunnable);
-        } else if (progress.status == Progress.FINISH) {
+            //上一次执行还没有结束时，由它结束后重新排队
+            if (scheduleState.schedule()) enqueue();
+            return;
+        }
+        if (status == Progress.FINISH) {
             if (progress.filePath == null) {
                 postOnError(progress, new StorageException("the file of the task with tag:" + progress.tag + " may be invalid or damaged, please call the method restart() to download again！"));
             } else {
@@ -190,14 +537,17 @@ public class DownloadTask implements Runnable {
                 if (!file.exists() && !TextUtils.isEmpty(progress.fileSuffix)) {
                     file = new File(file.getParent(), progress.fileName + progress.fileSuffix);
                 }
-                if (file.exists() && file.length() == progress.totalSize) {
+                if (extractFolder != null && !isKeepArchive && new File(extractFolder).isDirectory()) {
+                    //解压后没有保存压缩包，完成的是解压的文件夹
+                    postOnFinish(progress, new File(extractFolder));
+                } else if (file.exists() && file.length() == progress.totalSize) {
                     postOnFinish(progress, new File(progress.filePath));
                 } else {
                     postOnError(progress, new StorageException("the file " + progress.filePath + " may be invalid or damaged, please call the method restart() to download again！"));
                 }
             }
         } else {
-            OkLogger.w("the task with tag " + progress.tag + " is already in the download queue, current task status is " + progress.status);
+            OkLogger.w("the task with tag " + progress.tag + " is already in the download queue, current task status is " + status);
         }
     }
 
@@ -206,26 +556,64 @@ public class DownloadTask implements Runnable {
         // 注意，临时文件也要删除
         IOUtils.delFileOrFolder(progress.filePath);
         IOUtils.delFileOrFolder(new File(progress.folder, progress.tempFileName).getAbsoluteFile());
-        progress.status = Progress.NONE;
+        progress.transitionTo(Progress.NONE);
         progress.currentSize = 0;
         progress.fraction = 0;
         progress.speed = 0;
+        segments = null;
+        refreshValidator = null;
+        watermark.set(0);
+        OkDownload.getInstance().getPersister().discard(progress.tag);
+        SegmentManager.getInstance().delete(progress.tag);
         DownloadManager.getInstance().replace(progress);
         start();
     }
 
+    /**
+     * 刷新已经完成的文件，使用 progress.extra1 中保存的 ETag 或者 Last-Modified 发送条件请求，
+     * 服务器返回 304 时直接使用已有的文件完成，文件改变时重新下载。
+     * 任务没有完成、文件不存在或者没有保存校验信息时等同于 {@link #restart()}
+     */
+    public void refresh() {
+        if (progress.status != Progress.FINISH || progress.extra1 == null //
+                || TextUtils.isEmpty(progress.filePath) || !new File(progress.filePath).exists()) {
+            restart();
+            return;
+        }
+        if (!progress.compareAndSetStatus(Progress.FINISH, Progress.NONE)) {
+            restart();
+            return;
+        }
+        refreshValidator = progress.extra1.toString();
+        start();
+    }
+
     /**
      * 暂停的方法
      */
     public void pause() {
-        executor.remove(priorityRunnable);
-        if (progress.status == Progress.WAITING) {
+        OkDownload.getInstance().getDiskSpaceManager().cancel(this);
+        if (OkDownload.getInstance().getSingleFlight().leave(this)) {
             postPause(progress);
-        } else if (progress.status == Progress.LOADING) {
-            progress.speed = 0;
-            progress.status = Progress.PAUSE;
-        } else {
-            OkLogger.w("only the task with status WAITING(1) or LOADING(2) can pause, current status is " + progress.status);
+            return;
+        }
+        while (true) {
+            int status = progress.status;
+            if (status == Progress.WAITING) {
+                if (!progress.compareAndSetStatus(Progress.WAITING, Progress.PAUSE)) continue;
+                //已经开始执行的下载线程发现状态改变后直接结束
+                unschedule();
+                postPause(progress);
+            } else if (status == Progress.LOADING) {
+                if (!progress.compareAndSetStatus(Progress.LOADING, Progress.PAUSE)) continue;
+                progress.speed = 0;
+                //阻塞在读网络上的下载线程立即结束，尽快让出线程池的位置
+                CallGroup calls = activeCalls;
+                if (calls != null) calls.cancelAll();
+            } else {
+                OkLogger.w("only the task with status WAITING(1) or LOADING(2) can pause, current status is " + status);
+            }
+            return;
         }
     }
 
@@ -245,7 +633,10 @@ public class DownloadTask implements Runnable {
             IOUtils.delFileOrFolder(progress.filePath);
             IOUtils.delFileOrFolder(new File(progress.folder, progress.tempFileName).getAbsoluteFile());
         }
+        OkDownload.getInstance().getPersister().discard(progress.tag);
         DownloadManager.getInstance().delete(progress.tag);
+        SegmentManager.getInstance().delete(progress.tag);
+        IOUtils.closeQuietly(streamSink);
         DownloadTask task = OkDownload.getInstance().removeTask(progress.tag);
         postOnRemove(progress);
         return task;
@@ -254,16 +645,200 @@ public class DownloadTask implements Runnable {
 
     @Override
     public void run() {
-        //check breakpoint
-        long startPosition = progress.currentSize;
+        //排队期间被暂停或者删除了
+        if (!progress.compareAndSetStatus(Progress.WAITING, Progress.LOADING)) {
+            onScheduleEnd();
+            return;
+        }
+        DownloadThreadPool threadPool = OkDownload.getInstance().getThreadPool();
+        //executor 在放入线程池之后才赋值，等 enqueue 结束再读取
+        synchronized (this) {
+            threadPool.onTaskStart(this, executor);
+        }
+        try {
+            int reconnects = 0;
+            while (true) {
+                retryError = null;
+                isExecuting = true;
+                CallGroup calls = new CallGroup();
+                activeCalls = calls;
+                //在创建之前已经暂停或者被抢占，之后的连接都立即取消
+                if (progress.status != Progress.LOADING) calls.cancelAll();
+                try {
+                    execute();
+                } finally {
+                    isExecuting = false;
+                    activeCalls = null;
+                }
+                Throwable error = retryError;
+                retryError = null;
+                if (error == null) return;
+                //暂停，或者暂停后又被重新开始了
+                if (progress.status != Progress.LOADING) {
+                    postPause(progress);
+                    return;
+                }
+                //还有没有失败的镜像，立即切换，不占用重试次数
+                if (canFailover(error)) {
+                    failover(error);
+                    continue;
+                }
+                //单连接下载卡顿，立即从断点处重新连接，不占用重试次数
+                StallDetector detector = stallDetector;
+                if (error instanceof StalledException && detector != null && reconnects < detector.getMaxReconnects()) {
+                    reconnects++;
+                    metrics.addReconnect();
+                    OkLogger.w("the task with tag " + progress.tag + " stalled, reconnect " + reconnects);
+                    progress.speed = 0;
+                    updateDatabase(progress);
+                    continue;
+                }
+                RetryPolicy policy = getRetryPolicy();
+                if (policy == null || retries >= policy.getMaxRetries()) {
+                    postOnError(progress, error);
+                    return;
+                }
+                retries++;
+                metrics.addRetry();
+                scheduleRetry(policy.getDelay(retries), error);
+                return;
+            }
+        } finally {
+            //无论任务以什么状态结束，都释放预留的磁盘空间
+            OkDownload.getInstance().getDiskSpaceManager().release(this);
+            threadPool.onTaskEnd(this);
+            onScheduleEnd();
+        }
+    }
+
+    private RetryPolicy getRetryPolicy() {
+        return retryPolicy != null ? retryPolicy : OkDownload.getInstance().getRetryPolicy();
+    }
+
+    /** 是否还可以切换到本轮没有失败过的镜像 */
+    private boolean canFailover(Throwable error) {
+        if (mirrors == null || !(error instanceof IOException || error instanceof HttpException)) return false;
+        //当前镜像下载过数据时重新开始计算失败的镜像
+        return mirrorFailures < mirrors.size() - 1 || progress.currentSize > mirrorStartSize;
+    }
+
+    private void failover(Throwable error) {
+        if (progress.currentSize > mirrorStartSize) mirrorFailures = 0;
+        mirrorFailures++;
+        metrics.addFailover();
+        String failedUrl = progress.url;
+        useMirror((mirrorIndex + 1) % mirrors.size());
+        OkLogger.w("the task with tag " + progress.tag + " failed on " + failedUrl + ", switch to " + progress.url + ": " + error);
+        progress.speed = 0;
+        updateDatabase(progress);
+    }
+
+    /** 切换到指定的镜像，之后的请求都使用该地址 */
+    private void useMirror(int index) {
+        String url = mirrors.get(index);
+        if (validatedUrl == null) validatedUrl = progress.url;
+        mirrorIndex = index;
+        mirrorStartSize = progress.currentSize;
+        synchronized (progress.request) {
+            progress.request.baseUrl(url);
+        }
+        progress.url = url;
+    }
+
+    /** 已下载的部分是否来自其他镜像 */
+    private boolean isCrossMirror() {
+        return validatedUrl != null && !validatedUrl.equals(progress.url);
+    }
+
+    /**
+     * 其他镜像的范围响应是否和已下载的部分是同一个文件，ETag 或者 Last-Modified 任意一个一致，并且文件长度一致
+     */
+    private boolean isValidatorAgreed(Response response) {
+        String eTag = response.header(HttpHeaders.HEAD_KEY_E_TAG);
+        String modified = response.header(HttpHeaders.HEAD_KEY_LAST_MODIFIED);
+        String saved = progress.extra1 != null ? progress.extra1.toString() : null;
+        boolean agreed = saved != null && (saved.equals(eTag) || saved.equals(modified)) //
+                || lastModified != null && lastModified.equals(modified);
+        if (!agreed) return false;
+        String contentRange = response.header(HttpHeaders.HEAD_KEY_CONTENT_RANGE);
+        if (contentRange == null || progress.totalSize <= 0 || progress.totalSize == Long.MAX_VALUE) return true;
+        String total = contentRange.substring(contentRange.lastIndexOf('/') + 1).trim();
+        return "*".equals(total) || total.equals(String.valueOf(progress.totalSize));
+    }
+
+    /** 创建一个请求其他地址的连接，请求头和参数与当前的请求相同 */
+    private Call newCall(String url) {
+        Request<?, ? extends Request> request = progress.request;
+        synchronized (request) {
+            String baseUrl = request.getBaseUrl();
+            request.baseUrl(url);
+            try {
+                return request.getRawCall();
+            } finally {
+                request.baseUrl(baseUrl);
+            }
+        }
+    }
+
+    /**
+     * 保存当前的断点，回到等待状态并结束下载线程，等待 delay 后重新排队，等待期间可以暂停
+     */
+    private void scheduleRetry(long delay, Throwable error) {
+        OkLogger.w("the task with tag " + progress.tag + " failed, retry " + retries + " after " + delay + "ms: " + error);
+        //所有镜像都失败过，重试时从下一个镜像开始新的一轮
+        if (mirrors != null) {
+            mirrorFailures = 0;
+            useMirror((mirrorIndex + 1) % mirrors.size());
+        }
+        if (!progress.compareAndSetStatus(Progress.LOADING, Progress.WAITING)) {
+            //暂停，或者暂停后又被重新开始了
+            postPause(progress);
+            return;
+        }
+        postWaiting(progress);
+        synchronized (this) {
+            retryFuture = SCHEDULER.schedule(this::onRetryDelayed, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** 重试的等待结束，任务仍在等待时重新排队，下载线程还没有结束时由它结束后排队 */
+    private void onRetryDelayed() {
+        synchronized (this) {
+            retryFuture = null;
+        }
+        requeue();
+    }
+
+    private void execute() {
+        responseCode = 0;
+        //恢复分段下载的断点
+        if (segments == null) {
+            List<Segment> savedSegments = SegmentManager.getInstance().get(progress.tag);
+            if (!savedSegments.isEmpty()) segments = savedSegments;
+        }
+        //相同的资源正在下载，等待该下载完成。流式下载和边下载边解压的任务没有可以共享的文件，不参与合并
+        if (streamSink == null && extractFolder == null && OkDownload.getInstance().getSingleFlight().join(this)) {
+            postLoading(progress);
+            return;
+        }
+        //刷新已经完成的文件时从头开始请求，文件没有改变时不会下载，边下载边解压时也不能续传
+        if (refreshValidator != null || extractFolder != null) {
+            progress.currentSize = 0;
+            progress.fraction = 0;
+            //文件可能已经改变，长度以这次的响应为准
+            if (refreshValidator != null) progress.totalSize = -1;
+            clearSegments();
+        }
+        //check breakpoint，分段下载时从连续写入的位置开始探测
+        long startPosition = segments != null ? Segment.contiguousSize(segments) : progress.currentSize;
         if (startPosition < 0) {
             progress.speed = 0;
-            progress.status = Progress.NONE;
             progress.currentSize = 0;
             startPosition = 0;
+            clearSegments();
             updateDatabase(progress);
         }
-        if (startPosition > 0) {
+        if (streamSink == null && (startPosition > 0 || segments != null)) {
             if (!TextUtils.isEmpty(progress.filePath)) {
                 File file;
                 if (!TextUtils.isEmpty(progress.tempFileName)) {
@@ -273,23 +848,57 @@ public class DownloadTask implements Runnable {
                 }
                 if (!file.exists()) {
                     progress.speed = 0;
-                    progress.status = Progress.NONE;
                     progress.currentSize = 0;
                     startPosition = 0;
+                    clearSegments();
                     updateDatabase(progress);
                 }
             }
         }
+        //没有断点时才尝试增量更新
+        if (deltaBase != null && refreshValidator == null && extractFolder == null && startPosition == 0 && segments == null && executeDelta()) return;
+        //长度已知时先检查磁盘空间，等待空间的任务定时重新执行时不需要每次都发送请求
+        if (streamSink == null && progress.totalSize > 0 && progress.totalSize != Long.MAX_VALUE) {
+            File file = TextUtils.isEmpty(progress.tempFileName) && TextUtils.isEmpty(progress.filePath) ? null : getDownloadFile();
+            if (!reserveSpace(file, null)) return;
+        }
         //request network from startPosition
+        Call call;
         Response response;
         try {
             Request<?, ? extends Request> request = progress.request;
             //断点续传的条件设置
-            if (progress.extra1 != null && startPosition > 0) {
-                request.headers(HttpHeaders.HEAD_KEY_IF_RANGE, progress.extra1.toString());
+            if (progress.extra1 != null && (startPosition > 0 || segments != null)) {
+                //切换镜像后优先使用 Last-Modified 作为条件
+                String validator = isCrossMirror() && lastModified != null ? lastModified : progress.extra1.toString();
+                request.headers(HttpHeaders.HEAD_KEY_IF_RANGE, validator);
                 request.headers(HttpHeaders.HEAD_KEY_RANGE, "bytes=" + startPosition + "-");
+            } else {
+                request.removeHeader(HttpHeaders.HEAD_KEY_IF_RANGE);
+                request.removeHeader(HttpHeaders.HEAD_KEY_RANGE);
+                request.removeHeader(HttpHeaders.HEAD_KEY_IF_NONE_MATCH);
+                request.removeHeader(HttpHeaders.HEAD_KEY_IF_MODIFIED_SINCE);
+                //ETag 使用 If-None-Match，Last-Modified 是 GMT 时间，使用 If-Modified-Since
+                if (refreshValidator != null) {
+                    boolean isDate = refreshValidator.endsWith("GMT");
+                    request.headers(isDate ? HttpHeaders.HEAD_KEY_IF_MODIFIED_SINCE : HttpHeaders.HEAD_KEY_IF_NONE_MATCH, refreshValidator);
+                }
+                //分段下载时，通过范围请求探测服务器是否支持
+                if (threadCount > 1 && startPosition == 0) {
+                    request.headers(HttpHeaders.HEAD_KEY_RANGE, "bytes=0-");
+                }
+            }
+            call = track(request.getRawCall());
+            if (isRaceMirrors && mirrors != null) {
+                int next = (mirrorIndex + 1) % mirrors.size();
+                Call[] calls = {call, track(newCall(mirrors.get(next)))};
+                MirrorRace.Result result = new MirrorRace(calls).await();
+                if (result.index != 0) useMirror(next);
+                call = calls[result.index];
+                response = result.response;
+            } else {
+                response = call.execute();
             }
-            response = request.execute();
         } catch (IllegalArgumentException | IOException e) {
             // 新增 对 非 https 和 http 协议地址，抛出IllegalArgumentException
             postOnError(progress, e);
@@ -297,7 +906,20 @@ public class DownloadTask implements Runnable {
         }
         //check network data
         int code = response.code();
-        if (code == 404 || code >= 500) {
+        responseCode = code;
+        //服务器出错时保留刷新的条件，重试时继续使用
+        if (refreshValidator != null && code < 400) {
+            refreshValidator = null;
+            progress.request.removeHeader(HttpHeaders.HEAD_KEY_IF_NONE_MATCH);
+            progress.request.removeHeader(HttpHeaders.HEAD_KEY_IF_MODIFIED_SINCE);
+            if (code == 304) {
+                IOUtils.closeQuietly(response.body());
+                finishUnchanged();
+                return;
+            }
+        }
+        if (code >= 400 && code != 416) {
+            IOUtils.closeQuietly(response.body());
             postOnError(progress, HttpException.NET_ERROR());
             return;
         }
@@ -306,9 +928,29 @@ public class DownloadTask implements Runnable {
             progress.extra1 = null;
             progress.fraction = 0;
             progress.currentSize = 0;
+            watermark.set(0);
+            clearSegments();
             postOnError(progress, HttpException.COMMON("文件过期，需要重新下载"));
             return;
         }
+        //已下载的部分来自其他镜像，两边的文件不一致时不能续传
+        if (code == 206 && isCrossMirror() && !isValidatorAgreed(response)) {
+            OkLogger.w("the file on " + progress.url + " differs from " + validatedUrl + ", download again");
+            IOUtils.closeQuietly(response.body());
+            progress.extra1 = null;
+            progress.fraction = 0;
+            progress.currentSize = 0;
+            validatedUrl = null;
+            lastModified = null;
+            mirrorStartSize = 0;
+            watermark.set(0);
+            clearSegments();
+            updateDatabase(progress);
+            execute();
+            return;
+        }
+        validatedUrl = progress.url;
+        lastModified = response.header(HttpHeaders.HEAD_KEY_LAST_MODIFIED);
         //文件修改的标志位，优先使用 etag
         String extra = response.header(HttpHeaders.HEAD_KEY_E_TAG);
         if (TextUtils.isEmpty(extra)) {
@@ -317,9 +959,17 @@ public class DownloadTask implements Runnable {
         progress.extra1 = extra;
         //200 表示这是一个新的文件下载,206 表示断点续传
         if (code == 200) {
+            //已经交给调用者的数据不能收回，流式下载不能从头开始
+            if (streamSink != null && startPosition > 0) {
+                IOUtils.closeQuietly(response.body());
+                postOnError(progress, OkGoException.BREAKPOINT_EXPIRED());
+                return;
+            }
             progress.currentSize = 0;
             progress.fraction = 0f;
             startPosition = 0;
+            watermark.set(0);
+            clearSegments();
         }
         updateDatabase(progress);
 
@@ -328,12 +978,10 @@ public class DownloadTask implements Runnable {
             postOnError(progress, new HttpException("response body is null"));
             return;
         }
-        if (progress.totalSize == -1) {
-            progress.totalSize = body.contentLength();
-        }
-        // 针对服务器 body.contentLength = -1 的情况定制
-        if (progress.totalSize == -1) {
-            progress.totalSize = Long.MAX_VALUE;
+        progress.totalSize = resolveTotalSize(code, progress.totalSize, body.contentLength());
+        if (streamSink != null) {
+            stream(call, body);
+            return;
         }
         //create filename
         String fileName = progress.fileName;
@@ -360,7 +1008,7 @@ public class DownloadTask implements Runnable {
         } else {
             downloadFile = new File(progress.filePath);
         }
-        if (startPosition > 0 && !downloadFile.exists()) {
+        if ((startPosition > 0 || segments != null) && !downloadFile.exists()) {
             postOnError(progress, OkGoException.BREAKPOINT_EXPIRED());
             return;
         }
@@ -368,11 +1016,18 @@ public class DownloadTask implements Runnable {
             postOnError(progress, OkGoException.BREAKPOINT_EXPIRED());
             return;
         }
-        if (startPosition == 0 && downloadFile.exists()) {
+        if (startPosition == 0 && segments == null && downloadFile.exists()) {
             IOUtils.delFileOrFolder(downloadFile);
         }
+        try {
+            prepareDigest(response, downloadFile, startPosition);
+        } catch (IOException e) {
+            postOnError(progress, e);
+            return;
+        }
         if (startPosition == progress.totalSize && startPosition > 0) {
             if (downloadFile.exists() && startPosition == downloadFile.length()) {
+                if (!checkDigest(downloadFile)) return;
                 // 下载完成，改名字
                 if (!TextUtils.isEmpty(progress.tempFileName)) {
                     File disFile = new File(progress.filePath);
@@ -386,28 +1041,64 @@ public class DownloadTask implements Runnable {
             }
             return;
         }
-        //start downloading
-        RandomAccessFile randomAccessFile;
-        try {
-            randomAccessFile = new RandomAccessFile(downloadFile, "rw");
-            randomAccessFile.seek(startPosition);
-            progress.currentSize = startPosition;
-        } catch (Exception e) {
-            postOnError(progress, e);
+        //check disk space
+        if (!reserveSpace(downloadFile, body)) return;
+        if (extractFolder != null) {
+            extractArchive(call, body, downloadFile);
             return;
         }
-        DownloadManager.getInstance().replace(progress);
-        try {
-            download(body.byteStream(), randomAccessFile, progress);
-        } catch (IOException e) {
-            postOnError(progress, e);
-            return;
+        if (isPreallocate && progress.totalSize != Long.MAX_VALUE) {
+            try {
+                if (preallocate(downloadFile, progress.totalSize)) {
+                    //空间已经真正分配，不需要再预留
+                    OkDownload.getInstance().getDiskSpaceManager().release(this);
+                }
+            } catch (IOException | StorageException e) {
+                IOUtils.closeQuietly(body);
+                postOnError(progress, e);
+                return;
+            }
+        }
+        //start downloading
+        if (isSegmentEnabled(response, startPosition)) {
+            //探测请求的响应不再使用，每个分段各自发起范围请求
+            IOUtils.closeQuietly(body);
+            try {
+                downloadSegments(downloadFile, startPosition);
+            } catch (IOException e) {
+                postOnError(progress, e);
+                return;
+            }
+        } else {
+            clearSegments();
+            WritePipeline pipeline;
+            try {
+                pipeline = createPipeline(downloadFile);
+                progress.currentSize = startPosition;
+                watermark.set(startPosition);
+            } catch (Exception e) {
+                postOnError(progress, e);
+                return;
+            }
+            DownloadManager.getInstance().replace(progress);
+            StallDetector.Watch watch = stallDetector != null ? stallDetector.watch(call, body.source()) : null;
+            try {
+                download(watch != null ? watch.source() : body.source(), pipeline, startPosition, progress);
+            } catch (IOException e) {
+                postOnError(progress, watch != null && watch.isStalled() ? new StalledException(e) : e);
+                return;
+            } finally {
+                if (watch != null) watch.close();
+            }
         }
         //check finish status
         if (progress.status == Progress.PAUSE) {
             postPause(progress);
         } else if (progress.status == Progress.LOADING) {
-            if (downloadFile.length() == progress.totalSize) {
+            //预分配时文件长度一开始就是 totalSize，单连接下载需要用已写入的长度判断
+            boolean finished = segments == null ? progress.currentSize == progress.totalSize : Segment.remaining(segments) == 0;
+            if (finished && downloadFile.length() == progress.totalSize) {
+                if (!checkDigest(downloadFile)) return;
                 // 下载完成，更改名字
                 if (!TextUtils.isEmpty(progress.tempFileName)) {
                     File disFile = new File(progress.filePath);
@@ -425,33 +1116,771 @@ public class DownloadTask implements Runnable {
     }
 
     /**
-     * 执行文件下载
+     * 执行文件下载，当前线程只负责读网络，写文件由 pipeline 的写线程完成
      */
-    private void download(InputStream input, RandomAccessFile out, Progress progress) throws IOException {
-        if (input == null || out == null) return;
-        progress.status = Progress.LOADING;
-        byte[] buffer = new byte[BUFFER_SIZE];
-        BufferedInputStream in = new BufferedInputStream(input, BUFFER_SIZE);
+    private void download(BufferedSource source, WritePipeline pipeline, long position, Progress progress) throws IOException {
+        if (source == null || pipeline == null) return;
         int len;
         try {
-            while ((len = in.read(buffer, 0, BUFFER_SIZE)) != -1 && progress.status == Progress.LOADING) {
-                out.write(buffer, 0, len);
-                Progress.changeProgress(progress, len, progress.totalSize, this::postLoading);
+            while (progress.status == Progress.LOADING && (len = pipeline.read(source, null, position, chunkSize(Long.MAX_VALUE))) != -1) {
+                position += len;
+                acquire(len);
             }
+            //等待已经读取的数据全部写入文件，暂停时保存的断点才是准确的
+            pipeline.finish();
             if (progress.totalSize == Long.MAX_VALUE) {
                 progress.totalSize = progress.currentSize;
             }
         } finally {
-            IOUtils.closeQuietly(out);
+            IOUtils.closeQuietly(pipeline);
+            IOUtils.closeQuietly(source);
+        }
+    }
+
+    /**
+     * 流式下载，在当前线程中读取网络后直接写入 streamSink，进度只在写入成功后更新，暂停后从这里继续
+     */
+    private void stream(Call call, ResponseBody body) {
+        DownloadManager.getInstance().replace(progress);
+        StallDetector.Watch watch = stallDetector != null ? stallDetector.watch(call, body.source()) : null;
+        BufferedSource source = watch != null ? watch.source() : body.source();
+        Buffer buffer = new Buffer();
+        try {
+            long len;
+            while (progress.status == Progress.LOADING && (len = source.read(buffer, chunkSize(STREAM_CHUNK_SIZE))) != -1) {
+                streamSink.write(buffer, len);
+                synchronized (progress) {
+                    Progress.changeProgress(progress, len, progress.totalSize, this::postLoading);
+                }
+                acquire((int) len);
+            }
+            streamSink.flush();
+        } catch (IOException e) {
+            postOnError(progress, watch != null && watch.isStalled() ? new StalledException(e) : e);
+            return;
+        } finally {
+            if (watch != null) watch.close();
+            IOUtils.closeQuietly(body);
+        }
+        if (progress.status == Progress.PAUSE) {
+            postPause(progress);
+        } else if (progress.status == Progress.LOADING) {
+            if (progress.totalSize == Long.MAX_VALUE) {
+                progress.totalSize = progress.currentSize;
+            }
+            if (progress.currentSize == progress.totalSize) {
+                IOUtils.closeQuietly(streamSink);
+                postOnFinish(progress, null);
+            } else {
+                postOnError(progress, new IOException("unexpected end of stream, " + progress.currentSize + " of " + progress.totalSize));
+            }
+        } else {
+            postOnError(progress, OkGoException.UNKNOWN());
+        }
+    }
+
+    /**
+     * 边下载边解压，读取的压缩数据同时参与摘要的计算，保存压缩包时写入 archiveFile
+     */
+    private void extractArchive(Call call, ResponseBody body, File archiveFile) {
+        progress.currentSize = 0;
+        watermark.set(0);
+        DownloadManager.getInstance().replace(progress);
+        File folder = new File(extractFolder);
+        StallDetector.Watch watch = stallDetector != null ? stallDetector.watch(call, body.source()) : null;
+        final long[] position = {0};
+        try {
+            ArchiveExtractor extractor = new ArchiveExtractor(folder);
+            extractor.extract(watch != null ? watch.source() : body.source(), isKeepArchive ? archiveFile : null, (buffer, offset, length) -> {
+                if (progress.status != Progress.LOADING) throw new InterruptedIOException("the task with tag " + progress.tag + " is paused");
+                DownloadDigest digest = this.digest;
+                if (digest != null) digest.update(ByteBuffer.wrap(buffer, offset, length), position[0]);
+                position[0] += length;
+                synchronized (progress) {
+                    Progress.changeProgress(progress, length, progress.totalSize, this::postLoading);
+                }
+                acquire(length);
+            });
+        } catch (IOException e) {
+            //解压到一半的压缩包不能续传
+            IOUtils.delFileOrFolder(archiveFile);
+            progress.currentSize = 0;
+            progress.fraction = 0;
+            if (progress.status == Progress.PAUSE) {
+                postPause(progress);
+            } else {
+                postOnError(progress, watch != null && watch.isStalled() ? new StalledException(e) : e);
+            }
+            return;
+        } finally {
+            if (watch != null) watch.close();
+            IOUtils.closeQuietly(body);
+        }
+        if (progress.totalSize == Long.MAX_VALUE) {
+            progress.totalSize = progress.currentSize;
+        }
+        if (!checkDigest(archiveFile)) return;
+        if (!isKeepArchive) {
+            postOnFinish(progress, folder);
+        } else if (!TextUtils.isEmpty(progress.tempFileName)) {
+            File disFile = new File(progress.filePath);
+            archiveFile.renameTo(disFile);
+            postOnFinish(progress, disFile);
+        } else {
+            postOnFinish(progress, archiveFile);
+        }
+    }
+
+    /**
+     * 响应对应的文件总长度，200 表示服务器返回的是完整的文件，文件可能已经改变，总是使用响应的长度，
+     * 206 时只在长度未知的情况下使用响应的长度
+     *
+     * @return 服务器没有返回长度时返回 Long.MAX_VALUE
+     */
+    static long resolveTotalSize(int code, long totalSize, long contentLength) {
+        if (code == 200 || totalSize == -1) totalSize = contentLength;
+        // 针对服务器 body.contentLength = -1 的情况定制
+        return totalSize == -1 ? Long.MAX_VALUE : totalSize;
+    }
+
+    /** 刷新时服务器上的文件没有改变，直接使用已有的文件完成 */
+    private void finishUnchanged() {
+        File file = new File(progress.filePath);
+        if (!file.exists()) {
+            postOnError(progress, new StorageException("the file " + progress.filePath + " was deleted during refresh, please call the method restart() to download again！"));
+            return;
+        }
+        progress.totalSize = file.length();
+        progress.currentSize = progress.totalSize;
+        postOnFinish(progress, file);
+    }
+
+    /**
+     * 增量更新，复用旧文件中相同的块，改变的部分用范围请求下载，在单独的文件中组装完成后替换目标文件。
+     * 组装中的文件不能断点续传，暂停或者失败后删除，下次重新比较
+     *
+     * @return false 表示不能增量更新，需要下载整个文件
+     */
+    private boolean executeDelta() {
+        if (!deltaBase.isFile()) return false;
+        BlockManifest manifest = deltaManifest;
+        long[] offsets;
+        try {
+            if (manifest == null) manifest = BlockManifest.fetch(track(newManifestCall()), rateLimiter, OkDownload.getInstance().getRateLimiter());
+            offsets = manifest.match(deltaBase);
+        } catch (IOException e) {
+            OkLogger.w("the task with tag " + progress.tag + " can't update by delta, download the whole file: " + e);
+            return false;
+        }
+        long reusable = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] >= 0) reusable += manifest.getBlockLength(i);
+        }
+        if (reusable == 0) return false;
+        OkLogger.i("the task with tag " + progress.tag + " reuses " + reusable + " of " + manifest.getLength() + " bytes from " + deltaBase);
+
+        if (TextUtils.isEmpty(progress.fileName)) progress.fileName = deltaBase.getName();
+        if (!IOUtils.createFolder(progress.folder)) {
+            postOnError(progress, StorageException.NOT_AVAILABLE());
+            return true;
+        }
+        if (TextUtils.isEmpty(progress.filePath)) {
+            progress.filePath = new File(progress.folder, progress.fileName).getAbsolutePath();
+        }
+        String name = TextUtils.isEmpty(progress.tempFileName) ? progress.fileName : progress.tempFileName;
+        File deltaFile = new File(progress.folder, name + ".delta");
+        //组装中的文件和服务器上的文件不是连续对应的，清除续传的条件，避免被当作断点
+        progress.extra1 = null;
+        progress.totalSize = manifest.getLength();
+        progress.currentSize = 0;
+        progress.fraction = 0;
+        watermark.set(0);
+        updateDatabase(progress);
+        if (!reserveSpace(deltaFile, null)) return true;
+
+        try {
+            downloadDelta(manifest, offsets, deltaFile);
+        } catch (IOException | IntegrityException e) {
+            discardDelta(deltaFile);
+            postOnError(progress, e);
+            return true;
+        }
+        if (progress.status != Progress.LOADING) {
+            discardDelta(deltaFile);
+            if (progress.status == Progress.PAUSE) {
+                postPause(progress);
+            } else {
+                postOnError(progress, OkGoException.UNKNOWN());
+            }
+            return true;
+        }
+        //没有设置期望摘要时使用清单中整个文件的摘要
+        DownloadDigest expected = expectedDigest != null ? expectedDigest : DownloadDigest.create(DownloadDigest.SHA256, manifest.getSha256());
+        digest = expected != null ? expected.newDigest() : null;
+        if (!checkDigest(deltaFile)) return true;
+        File target = new File(progress.filePath);
+        IOUtils.delFileOrFolder(target);
+        if (!deltaFile.renameTo(target)) {
+            discardDelta(deltaFile);
+            postOnError(progress, StorageException.NOT_AVAILABLE());
+            return true;
+        }
+        postOnFinish(progress, target);
+        return true;
+    }
+
+    private void discardDelta(File deltaFile) {
+        IOUtils.delFileOrFolder(deltaFile);
+        progress.currentSize = 0;
+        progress.fraction = 0;
+    }
+
+    /** 按顺序组装新文件，可以复用的块从旧文件中复制，连续的缺失块合并成一个范围请求 */
+    private void downloadDelta(BlockManifest manifest, long[] offsets, File file) throws IOException, IntegrityException {
+        progress.request.removeHeader(HttpHeaders.HEAD_KEY_IF_RANGE);
+        byte[] buffer = new byte[manifest.getBlockSize()];
+        RandomAccessFile in = null;
+        RandomAccessFile out = null;
+        try {
+            in = new RandomAccessFile(deltaBase, "r");
+            out = new RandomAccessFile(file, "rw");
+            out.setLength(manifest.getLength());
+            int index = 0;
+            while (index < offsets.length && progress.status == Progress.LOADING) {
+                if (offsets[index] >= 0) {
+                    int len = manifest.getBlockLength(index);
+                    in.seek(offsets[index]);
+                    in.readFully(buffer, 0, len);
+                    out.seek((long) index * manifest.getBlockSize());
+                    out.write(buffer, 0, len);
+                    metrics.addReusedBytes(len);
+                    onDeltaProgress(len);
+                    index++;
+                } else {
+                    int end = index;
+                    while (end < offsets.length && offsets[end] < 0) end++;
+                    downloadBlocks(manifest, index, end, out, buffer);
+                    index = end;
+                }
+            }
+        } finally {
             IOUtils.closeQuietly(in);
-            IOUtils.closeQuietly(input);
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /** 用一个范围请求下载 [start, end) 块，每块都和清单校验，服务器上的文件和清单不一致时返回 IntegrityException */
+    private void downloadBlocks(BlockManifest manifest, int start, int end, RandomAccessFile out, byte[] buffer) throws IOException, IntegrityException {
+        long from = (long) start * manifest.getBlockSize();
+        long to = Math.min((long) end * manifest.getBlockSize(), manifest.getLength()) - 1;
+        Response response = track(newRangeCall(from, to)).execute();
+        ResponseBody body = response.body();
+        try {
+            if (response.code() != 206 || body == null) {
+                throw new IOException("the server ignored the range request of delta blocks, http code is " + response.code());
+            }
+            BufferedSource source = body.source();
+            for (int index = start; index < end && progress.status == Progress.LOADING; index++) {
+                int len = manifest.getBlockLength(index);
+                int count = 0;
+                while (count < len) {
+                    int read = source.read(buffer, count, (int) chunkSize(len - count));
+                    if (read == -1) throw new EOFException("unexpected end of stream in block " + index);
+                    count += read;
+                    acquire(read);
+                }
+                if (!manifest.isBlockValid(index, buffer, len)) {
+                    throw IntegrityException.MISMATCH("MD5", "block " + index + " of the manifest", "a different block from " + progress.url);
+                }
+                out.seek((long) index * manifest.getBlockSize());
+                out.write(buffer, 0, len);
+                onDeltaProgress(len);
+            }
+        } finally {
+            IOUtils.closeQuietly(body);
+        }
+    }
+
+    private void onDeltaProgress(long length) {
+        synchronized (progress) {
+            Progress.changeProgress(progress, length, progress.totalSize, this::postLoading);
+        }
+    }
+
+    /**
+     * 创建写文件的管道，数据写入文件后才更新进度和分段的断点
+     */
+    private WritePipeline createPipeline(File file) throws IOException {
+        ThreadPoolExecutor transferExecutor = OkDownload.getInstance().getThreadPool().getTransferExecutor();
+        WritePipeline pipeline = new WritePipeline(file, transferExecutor, metrics, (segment, length) -> {
+            synchronized (progress) {
+                if (segment != null) segment.current += length;
+                Progress.changeProgress(progress, length, progress.totalSize, this::postLoading);
+                watermark.advance(segments == null ? progress.currentSize : Segment.contiguousSize(segments));
+            }
+        });
+        pipeline.setDigest(digest);
+        return pipeline;
+    }
+
+    /**
+     * 准备摘要的计算，暂停前的计算过程可以继续使用时直接继续，否则从文件中补读已经下载的部分
+     */
+    private void prepareDigest(Response response, File file, long startPosition) throws IOException {
+        DownloadDigest expected = expectedDigest;
+        if (expected == null && isDigestFromResponse) expected = DownloadDigest.fromResponse(response);
+        if (expected == null) {
+            digest = null;
+            return;
+        }
+        if (!expected.isSame(digest) || digest.getPosition() > startPosition) {
+            digest = expected.newDigest();
         }
+        if (startPosition > 0 && file.exists()) digest.catchUp(file, startPosition);
+    }
+
+    /**
+     * 校验摘要，分段下载中没有按顺序计算的部分从文件中补读
+     * 不一致时删除文件并清除断点，回调 IntegrityException
+     */
+    private boolean checkDigest(File file) {
+        DownloadDigest digest = this.digest;
+        if (digest == null) return true;
+        this.digest = null;
+        try {
+            digest.catchUp(file, file.length());
+            digest.verify();
+            return true;
+        } catch (IntegrityException e) {
+            IOUtils.delFileOrFolder(file);
+            progress.currentSize = 0;
+            progress.fraction = 0;
+            watermark.set(0);
+            clearSegments();
+            postOnError(progress, e);
+        } catch (IOException e) {
+            postOnError(progress, e);
+        }
+        return false;
+    }
+
+    /**
+     * 是否使用分段下载，需要服务器支持范围请求，并且文件长度已知
+     */
+    private boolean isSegmentEnabled(Response response, long startPosition) {
+        if (progress.totalSize == Long.MAX_VALUE) return false;
+        //已有分段断点的任务继续按原来的分段下载
+        if (segments != null) return response.code() == 206;
+        if (threadCount <= 1) return false;
+        boolean acceptRanges = response.code() == 206 || "bytes".equalsIgnoreCase(response.header(HttpHeaders.HEAD_KEY_ACCEPT_RANGES));
+        return acceptRanges && progress.totalSize - startPosition >= MIN_SEGMENT_SIZE * 2;
+    }
+
+    /**
+     * 分段并行下载，每个分段使用独立的连接写入同一个文件的不同位置
+     */
+    private void downloadSegments(final File file, long startPosition) throws IOException {
+        if (segments == null) {
+            int count = (int) Math.min(threadCount, (progress.totalSize - startPosition) / MIN_SEGMENT_SIZE);
+            segments = Segment.split(progress.tag, startPosition, progress.totalSize, count);
+            SegmentManager.getInstance().delete(progress.tag);
+            SegmentManager.getInstance().replace(segments);
+        }
+        progress.currentSize = progress.totalSize - Segment.remaining(segments);
+        progress.fraction = progress.currentSize * 1.0f / progress.totalSize;
+        watermark.set(Segment.contiguousSize(segments));
+        DownloadManager.getInstance().replace(progress);
+
+        Request<?, ? extends Request> request = progress.request;
+        ThreadPoolExecutor transferExecutor = OkDownload.getInstance().getThreadPool().getTransferExecutor();
+        final WritePipeline pipeline = createPipeline(file);
+        CallGroup active = activeCalls;
+        final CallGroup calls = active != null ? active : new CallGroup();
+        List<Future<?>> futures = new ArrayList<>();
+        IOException error = null;
+        try {
+            if (progress.extra1 != null) {
+                request.headers(HttpHeaders.HEAD_KEY_IF_RANGE, progress.extra1.toString());
+            }
+            for (final Segment segment : segments) {
+                if (segment.isFinished()) continue;
+                final Call call = calls.add(newRangeCall(segment.current, segment.end));
+                futures.add(transferExecutor.submit(() -> {
+                    downloadSegment(call, segment, pipeline, calls);
+                    return null;
+                }));
+            }
+        } catch (RuntimeException e) {
+            error = new IOException(e);
+            calls.cancelAll();
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException | InterruptedException e) {
+                if (error != null) continue;
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                error = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                //一个分段失败后，其余分段也没有必要继续了
+                calls.cancelAll();
+            }
+        }
+        //所有分段的数据都写入文件后再保存断点
+        try {
+            pipeline.finish();
+        } catch (IOException e) {
+            if (error == null) error = e;
+        } finally {
+            pipeline.close();
+        }
+        if (error != null) throw error;
+    }
+
+    /** 分块清单的请求，和下载使用同一个 client 和请求头，去掉断点续传和条件请求的头 */
+    private Call newManifestCall() {
+        okhttp3.Request manifest = newCall(deltaManifestUrl).request().newBuilder() //
+                .removeHeader(HttpHeaders.HEAD_KEY_RANGE) //
+                .removeHeader(HttpHeaders.HEAD_KEY_IF_RANGE) //
+                .removeHeader(HttpHeaders.HEAD_KEY_IF_NONE_MATCH) //
+                .removeHeader(HttpHeaders.HEAD_KEY_IF_MODIFIED_SINCE) //
+                .get().build();
+        return progress.request.getClient().newCall(manifest);
+    }
+
+    /** 创建一个范围请求，多个分段的线程共用同一个 request，需要加锁 */
+    private Call newRangeCall(long start, long end) {
+        Request<?, ? extends Request> request = progress.request;
+        synchronized (request) {
+            request.headers(HttpHeaders.HEAD_KEY_RANGE, "bytes=" + start + "-" + end);
+            try {
+                return request.getRawCall();
+            } finally {
+                request.removeHeader(HttpHeaders.HEAD_KEY_RANGE);
+            }
+        }
+    }
+
+    /**
+     * 下载一个分段，服务器必须返回 206，否则说明文件已经改变或者不支持范围请求
+     * 开启卡顿检测时，分段的连接卡顿后只重新连接这个分段
+     */
+    private void downloadSegment(Call call, Segment segment, WritePipeline pipeline, CallGroup calls) throws IOException {
+        //segment.current 由写线程更新，这里使用已经读取的位置
+        long position = segment.current;
+        int reconnects = 0;
+        while (true) {
+            Response response = call.execute();
+            ResponseBody body = response.body();
+            StallDetector.Watch watch = null;
+            try {
+                if (response.code() != 206 || body == null) {
+                    throw new IOException("the server ignored the range request of segment " + segment.index + ", http code is " + response.code());
+                }
+                BufferedSource source = body.source();
+                if (stallDetector != null) {
+                    watch = stallDetector.watch(call, source);
+                    source = watch.source();
+                }
+                int len;
+                while (progress.status == Progress.LOADING && position <= segment.end //
+                        && (len = pipeline.read(source, segment, position, chunkSize(segment.end + 1 - position))) != -1) {
+                    position += len;
+                    acquire(len);
+                }
+                if (progress.status == Progress.LOADING && position <= segment.end) {
+                    throw new IOException("unexpected end of stream in segment " + segment.index);
+                }
+                return;
+            } catch (IOException e) {
+                if (watch == null || !watch.isStalled()) throw e;
+                if (progress.status != Progress.LOADING || reconnects >= stallDetector.getMaxReconnects()) {
+                    throw new StalledException(e);
+                }
+            } finally {
+                if (watch != null) watch.close();
+                IOUtils.closeQuietly(body);
+            }
+            reconnects++;
+            metrics.addReconnect();
+            OkLogger.w("segment " + segment.index + " of the task with tag " + progress.tag + " stalled, reconnect " + reconnects);
+            call = calls.add(newRangeCall(position, segment.end));
+        }
+    }
+
+    /** 记录本次执行中发起的连接，暂停时可以立即取消 */
+    private Call track(Call call) {
+        CallGroup calls = activeCalls;
+        return calls != null ? calls.add(call) : call;
+    }
+
+    /** 一次执行中的所有连接，暂停或者一个分段失败后取消所有连接，之后新建的连接也会立即取消 */
+    private static class CallGroup {
+        private final List<Call> calls = new ArrayList<>();
+        private boolean isCanceled;
+
+        synchronized Call add(Call call) {
+            calls.add(call);
+            if (isCanceled) call.cancel();
+            return call;
+        }
+
+        synchronized void cancelAll() {
+            isCanceled = true;
+            for (Call call : calls) {
+                call.cancel();
+            }
+        }
+    }
+
+    /**
+     * 为剩余需要下载的字节预留磁盘空间，空间不足时按照 DiskSpaceManager 的策略失败或者继续等待
+     */
+    private boolean reserveSpace(File file, ResponseBody body) {
+        if (progress.totalSize == Long.MAX_VALUE) return true;
+        long required = progress.totalSize - (file != null && file.exists() ? file.length() : 0);
+        DiskSpaceManager manager = OkDownload.getInstance().getDiskSpaceManager();
+        int result = manager.reserve(this, new File(progress.folder), required);
+        if (result == DiskSpaceManager.RESERVED) return true;
+        IOUtils.closeQuietly(body);
+        if (result == DiskSpaceManager.REFUSED) {
+            postOnError(progress, StorageException.NOT_ENOUGH_SPACE(required));
+        } else if (progress.compareAndSetStatus(Progress.LOADING, Progress.WAITING)) {
+            OkLogger.w("not enough space for the task with tag " + progress.tag + ", wait for other tasks to release space");
+            postWaiting(progress);
+        } else {
+            postPause(progress);
+        }
+        return false;
+    }
+
+    /**
+     * 预分配文件空间，支持 posix_fallocate 时真正分配磁盘块，否则只设置文件长度
+     *
+     * @return 是否真正分配了磁盘空间
+     */
+    private boolean preallocate(File file, long length) throws IOException, StorageException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (Build.VERSION.SDK_INT >= 21) {
+                try {
+                    Os.posix_fallocate(raf.getFD(), 0, length);
+                    return true;
+                } catch (ErrnoException e) {
+                    if (e.errno == OsConstants.ENOSPC) throw StorageException.NOT_ENOUGH_SPACE(length);
+                    //文件系统不支持时退回到设置文件长度
+                }
+            }
+            if (raf.length() < length) raf.setLength(length);
+            return false;
+        } finally {
+            IOUtils.closeQuietly(raf);
+        }
+    }
+
+    /** 等待磁盘空间的任务重新排队 */
+    void requeue() {
+        if (progress.status != Progress.WAITING) return;
+        if (scheduleState.schedule()) enqueue();
+    }
+
+    /** 还在队列中、正在获取长度或者等待重试时离开队列 */
+    private void unschedule() {
+        boolean removed;
+        synchronized (this) {
+            if (retryFuture != null) {
+                retryFuture.cancel(false);
+                retryFuture = null;
+            }
+            removed = probeCall != null || executor.remove(priorityRunnable);
+            if (probeCall != null) {
+                probeCall.cancel();
+                probeCall = null;
+            }
+        }
+        if (removed) onScheduleEnd();
+    }
+
+    /** 执行结束或者离开队列，执行期间被重新开始的任务再次排队 */
+    private void onScheduleEnd() {
+        while (scheduleState.finish()) {
+            if (progress.status == Progress.WAITING) {
+                enqueue();
+                return;
+            }
+        }
+    }
+
+    /** 按剩余长度放入对应的分级通道，长度未知并且开启了 HEAD 请求时先获取长度 */
+    private synchronized void enqueue() {
+        DownloadThreadPool threadPool = OkDownload.getInstance().getThreadPool();
+        long size = getRemainingSize();
+        if (size < 0 && !isSizeProbed && threadPool.hasSizeLanes() && threadPool.isProbeSize()) {
+            probeSize();
+            return;
+        }
+        priorityRunnable = new PriorityRunnable(progress.priority, this);
+        executor = threadPool.execute(size, priorityRunnable);
+        threadPool.requestPreemption(this, executor);
+    }
+
+    /** 最近一次排队的线程池，还没有排过队时为 null */
+    ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    /** 还在线程池的队列中等待 */
+    boolean isQueued() {
+        PriorityRunnable runnable = priorityRunnable;
+        return runnable != null && runnable.isQueued();
+    }
+
+    /** 排队中的任务按新的优先级调整位置，优先级提高后可能抢占正在下载的任务 */
+    private void reprioritize(int priority) {
+        PriorityRunnable runnable;
+        ThreadPoolExecutor target;
+        synchronized (this) {
+            runnable = priorityRunnable;
+            target = executor;
+        }
+        if (runnable == null || target == null || !(target.getQueue() instanceof PriorityBlockingQueue)) return;
+        PriorityBlockingQueue<?> queue = (PriorityBlockingQueue<?>) target.getQueue();
+        if (queue.updatePriority(runnable, priority)) {
+            OkDownload.getInstance().getThreadPool().requestPreemption(this, target);
+        }
+    }
+
+    /**
+     * 被优先级更高的任务抢占，正在下载的任务回到等待状态并取消连接，
+     * 下载线程结束后重新排队，从断点继续，不回调暂停
+     *
+     * @return 任务已经不在下载中时返回 false
+     */
+    boolean preempt() {
+        if (!progress.compareAndSetStatus(Progress.LOADING, Progress.WAITING)) return false;
+        retries = 0;
+        //正在执行的任务一定是已调度的，这里只会标记为结束后重新排队
+        if (scheduleState.schedule()) enqueue();
+        progress.speed = 0;
+        CallGroup calls = activeCalls;
+        if (calls != null) calls.cancelAll();
+        OkLogger.w("the task with tag " + progress.tag + " is preempted by a task with higher priority");
+        postWaiting(progress);
+        return true;
+    }
+
+    /** 还需要下载的长度，未知时返回 -1 */
+    private long getRemainingSize() {
+        long totalSize = progress.totalSize > 0 && progress.totalSize != Long.MAX_VALUE ? progress.totalSize : sizeHint;
+        if (totalSize < 0) return -1;
+        return Math.max(totalSize - progress.currentSize, 0);
+    }
+
+    /** 异步发送 HEAD 请求获取长度，结束后排队，期间任务保持等待状态，暂停时取消请求 */
+    private void probeSize() {
+        Request<?, ? extends Request> request = progress.request;
+        okhttp3.Request head;
+        synchronized (request) {
+            head = request.getRawCall().request().newBuilder().head().build();
+        }
+        final Call call = request.getClient().newCall(head);
+        probeCall = call;
+        call.enqueue(new okhttp3.Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                onSizeProbed(call, -1);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                long size = -1;
+                if (response.isSuccessful()) {
+                    String length = response.header(HttpHeaders.HEAD_KEY_CONTENT_LENGTH);
+                    try {
+                        if (length != null) size = Long.parseLong(length);
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+                IOUtils.closeQuietly(response.body());
+                onSizeProbed(call, size);
+            }
+        });
+    }
+
+    private synchronized void onSizeProbed(Call call, long size) {
+        if (probeCall != call) return;
+        probeCall = null;
+        isSizeProbed = true;
+        if (size >= 0) sizeHint = size;
+        if (progress.status == Progress.WAITING) {
+            enqueue();
+        } else {
+            onScheduleEnd();
+        }
+    }
+
+    /** 限速时每次读取的字节数 */
+    private long chunkSize(long maxBytes) {
+        return RateLimiter.chunkSize(maxBytes, rateLimiter, OkDownload.getInstance().getRateLimiter());
+    }
+
+    /** 读取数据后获取限速的许可，令牌不足时阻塞当前的网络线程 */
+    private void acquire(int length) throws IOException {
+        RateLimiter.acquire(length, rateLimiter, OkDownload.getInstance().getRateLimiter());
+    }
+
+    boolean hasSegments() {
+        return segments != null;
+    }
+
+    /** 合并下载时，同步负责下载的任务的进度 */
+    void onFlightProgress(Progress source) {
+        if (progress.status != Progress.LOADING) return;
+        progress.totalSize = source.totalSize;
+        progress.currentSize = source.currentSize;
+        progress.fraction = source.fraction;
+        progress.speed = source.speed;
+        postLoading(progress);
+    }
+
+    /** 合并下载完成，为当前任务创建文件 */
+    void onFlightFinish(Progress source, File file) {
+        if (TextUtils.isEmpty(progress.fileName)) progress.fileName = source.fileName;
+        if (TextUtils.isEmpty(progress.filePath)) progress.filePath = new File(progress.folder, progress.fileName).getAbsolutePath();
+        File target = new File(progress.filePath);
+        try {
+            IOUtils.linkOrCopy(file, target);
+        } catch (IOException e) {
+            postOnError(progress, e);
+            return;
+        }
+        progress.extra1 = source.extra1;
+        progress.totalSize = target.length();
+        progress.currentSize = progress.totalSize;
+        postOnFinish(progress, target);
+    }
+
+    /** 合并下载出错 */
+    void onFlightError(Throwable throwable) {
+        postOnError(progress, throwable);
+    }
+
+    /** 负责下载的任务暂停或者删除了，当前任务重新排队自己下载 */
+    void onFlightRelease() {
+        if (progress.compareAndSetStatus(Progress.LOADING, Progress.NONE)) start();
+    }
+
+    /** 清除分段下载的断点 */
+    private void clearSegments() {
+        if (segments == null) return;
+        segments = null;
+        //未写入的断点不能在删除之后再写回数据库
+        OkDownload.getInstance().getPersister().discardSegments(progress.tag);
+        SegmentManager.getInstance().delete(progress.tag);
     }
 
     private void postOnStart(final Progress progress) {
         progress.speed = 0;
-        progress.status = Progress.NONE;
-        updateDatabase(progress);
         HttpUtils.runOnUiThread(() -> {
             for (DownloadListener listener : listeners.values()) {
                 listener.onStart(progress);
@@ -461,7 +1890,6 @@ public class DownloadTask implements Runnable {
 
     private void postWaiting(final Progress progress) {
         progress.speed = 0;
-        progress.status = Progress.WAITING;
         updateDatabase(progress);
         HttpUtils.runOnUiThread(() -> {
             for (DownloadListener listener : listeners.values()) {
@@ -471,9 +1899,12 @@ public class DownloadTask implements Runnable {
     }
 
     private void postPause(final Progress progress) {
+        //暂停后又被重新开始的任务不再通知暂停
+        if (!progress.compareAndSetStatus(Progress.LOADING, Progress.PAUSE) && progress.status != Progress.PAUSE) return;
         progress.speed = 0;
-        progress.status = Progress.PAUSE;
         updateDatabase(progress);
+        watermark.wake();
+        OkDownload.getInstance().getSingleFlight().onRelease(this);
         HttpUtils.runOnUiThread(() -> {
             for (DownloadListener listener : listeners.values()) {
                 listener.onProgress(progress);
@@ -482,7 +1913,8 @@ public class DownloadTask implements Runnable {
     }
 
     private void postLoading(final Progress progress) {
-        updateDatabase(progress);
+        OkDownload.getInstance().getPersister().save(progress, segments);
+        OkDownload.getInstance().getSingleFlight().onProgress(this);
         HttpUtils.runOnUiThread(() -> {
             for (DownloadListener listener : listeners.values()) {
                 listener.onProgress(progress);
@@ -491,33 +1923,62 @@ public class DownloadTask implements Runnable {
     }
 
     private void postOnError(final Progress progress, final Throwable throwable) {
+        //暂停时取消连接导致的错误按暂停处理，写入文件的数据已经计入进度，断点是准确的
+        if (isExecuting && progress.status == Progress.PAUSE) {
+            postPause(progress);
+            return;
+        }
+        //下载线程中可以重试的错误交给 run 处理，不通知失败
+        if (isExecuting) {
+            RetryPolicy policy = getRetryPolicy();
+            if (throwable instanceof StalledException && stallDetector != null || canFailover(throwable) //
+                    || policy != null && policy.isRetryable(throwable, responseCode)) {
+                retryError = throwable;
+                return;
+            }
+        }
+        //暂停后又被重新开始的任务不再通知失败
+        if (!transition(Progress.ERROR, Progress.LOADING, Progress.ERROR, Progress.FINISH)) {
+            if (progress.status == Progress.PAUSE) postPause(progress);
+            return;
+        }
         progress.speed = 0;
-        progress.status = Progress.ERROR;
         progress.exception = throwable;
         updateDatabase(progress);
+        watermark.wake();
         HttpUtils.runOnUiThread(() -> {
             for (DownloadListener listener : listeners.values()) {
                 listener.onProgress(progress);
                 listener.onError(progress);
             }
         });
+        OkDownload.getInstance().getSingleFlight().onError(this, throwable);
     }
 
     private void postOnFinish(final Progress progress, final File file) {
+        if (!transition(Progress.FINISH, Progress.LOADING, Progress.PAUSE, Progress.FINISH)) return;
         progress.speed = 0;
         progress.fraction = 1.0f;
-        progress.status = Progress.FINISH;
+        clearSegments();
         updateDatabase(progress);
+        if (file != null && file.isFile()) {
+            watermark.set(file.length());
+        } else {
+            watermark.wake();
+        }
         HttpUtils.runOnUiThread(() -> {
             for (DownloadListener listener : listeners.values()) {
                 listener.onProgress(progress);
                 listener.onFinish(file, progress);
             }
         });
+        //跟随者的文件在负责下载的任务完成后创建
+        OkDownload.getInstance().getSingleFlight().onFinish(this, file);
     }
 
     private void postOnRemove(final Progress progress) {
         updateDatabase(progress);
+        watermark.remove();
         HttpUtils.runOnUiThread(() -> {
             for (DownloadListener listener : listeners.values()) {
                 listener.onRemove(progress);
@@ -526,8 +1987,15 @@ public class DownloadTask implements Runnable {
         });
     }
 
+    /** 当前状态是 from 中的任意一个时转换到 to */
+    private boolean transition(int to, int... from) {
+        for (int expect : from) {
+            if (progress.compareAndSetStatus(expect, to)) return true;
+        }
+        return false;
+    }
+
     private void updateDatabase(Progress progress) {
-        ContentValues contentValues = Progress.buildUpdateContentValues(progress);
-        DownloadManager.getInstance().update(contentValues, progress.tag);
+        OkDownload.getInstance().getPersister().saveNow(progress, segments);
     }
 }
@@ -18,7 +18,15 @@ package com.lzy.okserver.download;
 import com.lzy.okserver.task.XExecutor;
 import com.lzy.okserver.task.PriorityBlockingQueue;
 
+import com.lzy.okgo.model.Progress;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -30,33 +38,372 @@ import java.util.concurrent.TimeUnit;
  * 描    述：下载管理的线程池
  * 修订历史：
  * ================================================
+ * <p>
+ * 2026-10-17
+ * 同时下载的数量可以在运行中修改，并支持根据网速自动调整
+ * <p>
+ * 2026-10-17
+ * 支持按文件大小分通道调度，小文件使用预留的线程，不会被长时间占用线程的大文件阻塞
+ * <p>
+ * 2026-10-17
+ * 支持排队任务的优先级老化，低优先级的任务等待足够久之后也能执行
+ * <p>
+ * 2026-10-17
+ * 支持抢占，没有空闲线程时高优先级的任务让正在下载的低优先级任务回到队列中等待
  */
 public class DownloadThreadPool {
     private static final int MAX_POOL_SIZE = 5;          //最大线程池的数量
+    private static final int MAX_ADAPTIVE_POOL_SIZE = 16; //自适应模式下并发数的上限
     private static final int KEEP_ALIVE_TIME = 1;        //存活的时间
     private static final TimeUnit UNIT = TimeUnit.HOURS; //时间单位
     private int corePoolSize = 3;                        //核心线程池的数量，同时能执行的线程数量，默认3个
-    private XExecutor executor;               //线程池执行器
+    private volatile XExecutor executor;      //线程池执行器
+    private ThreadPoolExecutor transferExecutor;         //任务内部的线程池，用于分段下载的连接和写文件
+    private AdaptiveConcurrency adaptive = new AdaptiveConcurrency(this);   //自适应的并发数
+    private boolean isAdaptive;
+    private volatile List<SizeLane> lanes = new ArrayList<>();   //按大小分级的通道，按 maxSize 从小到大排列
+    private volatile boolean isProbeSize;                        //大小未知的任务是否先用 HEAD 请求获取大小
+    private final List<XExecutor.OnAllTaskEndListener> allTaskEndListeners = new CopyOnWriteArrayList<>();
+    private int agingStep;                                       //优先级老化的设置，0 表示不老化
+    private long agingInterval;
+    private int agingMaxPriority;
+    private volatile boolean isPreemptive;                       //是否允许高优先级的任务抢占线程
+    private volatile int preemptPriority;                        //能够抢占其他任务的最低优先级
+    private final Map<DownloadTask, ThreadPoolExecutor> runningTasks = new ConcurrentHashMap<>();   //正在下载的任务和它所在的线程池
+    private final Object preemptLock = new Object();
 
     public XExecutor getExecutor() {
         if (executor == null) {
             synchronized (DownloadThreadPool.class) {
                 if (executor == null) {
-                    executor = new XExecutor(corePoolSize, MAX_POOL_SIZE, KEEP_ALIVE_TIME, UNIT, //
+                    executor = new XExecutor(corePoolSize, Math.max(corePoolSize, MAX_POOL_SIZE), KEEP_ALIVE_TIME, UNIT, //
                                              new PriorityBlockingQueue<Runnable>(),   //无限容量的缓冲队列
                                              Executors.defaultThreadFactory(),        //线程创建工厂
                                              new ThreadPoolExecutor.AbortPolicy());   //继续超出上限的策略，阻止
+                    applyAging(executor);
+                    watch(executor);
                 }
             }
         }
         return executor;
     }
 
-    /** 必须在首次执行前设置，否者无效 ,范围1-5之间 */
+    /** 下载任务内部使用的线程池，分段下载的每个连接和写文件的线程都在这里执行，线程数量由正在下载的任务决定 */
+    public ThreadPoolExecutor getTransferExecutor() {
+        if (transferExecutor == null) {
+            synchronized (DownloadThreadPool.class) {
+                if (transferExecutor == null) {
+                    transferExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, //
+                                                              new SynchronousQueue<Runnable>(),        //不缓存任务，直接交给线程执行
+                                                              Executors.defaultThreadFactory());
+                }
+            }
+        }
+        return transferExecutor;
+    }
+
+    /** 同时下载的数量，范围1-5之间，运行中设置会立即生效，开启自适应模式时会关闭自适应 */
     public void setCorePoolSize(int corePoolSize) {
         if (corePoolSize <= 0) corePoolSize = 1;
         if (corePoolSize > MAX_POOL_SIZE) corePoolSize = MAX_POOL_SIZE;
-        this.corePoolSize = corePoolSize;
+        disableAdaptive();
+        applyCorePoolSize(corePoolSize);
+    }
+
+    /** 当前同时下载的数量 */
+    public int getCorePoolSize() {
+        synchronized (DownloadThreadPool.class) {
+            return corePoolSize;
+        }
+    }
+
+    /**
+     * 开启自适应模式，根据总网速和单任务网速在 minPoolSize 和 maxPoolSize 之间调整同时下载的数量
+     *
+     * @param minPoolSize    最少同时下载的数量，至少为 1
+     * @param maxPoolSize    最多同时下载的数量，不超过 16
+     * @param sampleInterval 采样间隔，单位 ms
+     */
+    public void enableAdaptive(int minPoolSize, int maxPoolSize, long sampleInterval) {
+        if (minPoolSize <= 0) minPoolSize = 1;
+        if (maxPoolSize > MAX_ADAPTIVE_POOL_SIZE) maxPoolSize = MAX_ADAPTIVE_POOL_SIZE;
+        if (maxPoolSize < minPoolSize) maxPoolSize = minPoolSize;
+        if (sampleInterval <= 0) sampleInterval = AdaptiveConcurrency.DEFAULT_SAMPLE_INTERVAL;
+        synchronized (this) {
+            isAdaptive = true;
+            int current = getCorePoolSize();
+            int size = Math.max(minPoolSize, Math.min(current, maxPoolSize));
+            if (size != current) applyCorePoolSize(size);
+        }
+        adaptive.start(minPoolSize, maxPoolSize, sampleInterval);
+    }
+
+    public void enableAdaptive(int minPoolSize, int maxPoolSize) {
+        enableAdaptive(minPoolSize, maxPoolSize, AdaptiveConcurrency.DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /** 关闭自适应模式，保持当前的并发数 */
+    public void disableAdaptive() {
+        synchronized (this) {
+            if (!isAdaptive) return;
+            isAdaptive = false;
+        }
+        adaptive.stop();
+    }
+
+    public synchronized boolean isAdaptive() {
+        return isAdaptive;
+    }
+
+    /** 自适应模式的每次决策都会回调 */
+    public void addOnDecisionListener(AdaptiveConcurrency.OnDecisionListener listener) {
+        adaptive.addOnDecisionListener(listener);
+    }
+
+    public void removeOnDecisionListener(AdaptiveConcurrency.OnDecisionListener listener) {
+        adaptive.removeOnDecisionListener(listener);
+    }
+
+    /**
+     * 修改线程池的并发数，队列是无界的，线程数不会超过 corePoolSize，
+     * maximumPoolSize 同时改为相同的值，减少时多出的线程在当前任务结束后退出，不会再从队列中取任务
+     */
+    void applyCorePoolSize(int size) {
+        //和 getExecutor 使用同一个锁，避免线程池创建时使用旧的并发数
+        synchronized (DownloadThreadPool.class) {
+            corePoolSize = size;
+            if (executor == null) return;
+            if (size > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(size);
+                executor.setCorePoolSize(size);
+            } else {
+                executor.setCorePoolSize(size);
+                executor.setMaximumPoolSize(size);
+            }
+        }
+    }
+
+    /**
+     * 添加一个按大小分级的通道，剩余长度不超过 maxSize 的任务在这个通道中排队，
+     * 通道有自己预留的 poolSize 个线程，不占用 {@link #setCorePoolSize(int)} 设置的同时下载数量，
+     * 剩余长度超过所有通道的任务和长度未知的任务仍然在默认的线程池中排队。
+     * 已经添加过相同 maxSize 的通道时修改它的线程数
+     *
+     * @param maxSize  通道接受的最大剩余长度，单位 byte
+     * @param poolSize 通道预留的线程数，至少为 1
+     */
+    public void addSizeLane(long maxSize, int poolSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize must > 0");
+        if (poolSize <= 0) poolSize = 1;
+        synchronized (DownloadThreadPool.class) {
+            List<SizeLane> newLanes = new ArrayList<>(lanes);
+            for (SizeLane lane : newLanes) {
+                if (lane.maxSize == maxSize) {
+                    lane.setPoolSize(poolSize);
+                    return;
+                }
+            }
+            int index = 0;
+            while (index < newLanes.size() && newLanes.get(index).maxSize < maxSize) index++;
+            SizeLane lane = new SizeLane(maxSize, poolSize);
+            applyAging(lane.executor);
+            watch(lane.executor);
+            newLanes.add(index, lane);
+            lanes = newLanes;
+        }
+    }
+
+    /**
+     * 删除所有的分级通道，已经在通道中排队的任务会继续执行完，之后的任务都在默认的线程池中排队。
+     * 通道在锁内移除，{@link #execute(long, Runnable)} 不会再选中，关闭之后不会有新的任务放入
+     */
+    public void clearSizeLanes() {
+        List<SizeLane> oldLanes;
+        synchronized (DownloadThreadPool.class) {
+            oldLanes = lanes;
+            lanes = new ArrayList<>();
+        }
+        for (SizeLane lane : oldLanes) {
+            lane.executor.shutdown();
+        }
+    }
+
+    public boolean hasSizeLanes() {
+        return !lanes.isEmpty();
+    }
+
+    /** 长度未知的任务排队前是否先发送 HEAD 请求获取长度，只在有分级通道时生效，获取失败时在默认的线程池中排队 */
+    public void setProbeSize(boolean probeSize) {
+        isProbeSize = probeSize;
+    }
+
+    public boolean isProbeSize() {
+        return isProbeSize;
+    }
+
+    /**
+     * 剩余长度对应的线程池
+     *
+     * @param size 剩余长度，小于0表示未知
+     */
+    public XExecutor getExecutor(long size) {
+        if (size >= 0) {
+            for (SizeLane lane : lanes) {
+                if (size <= lane.maxSize) return lane.executor;
+            }
+        }
+        return getExecutor();
+    }
+
+    /**
+     * 开启排队任务的优先级老化，对默认的线程池和所有分级通道都生效，包括之后创建的通道。
+     * 任务每排队 interval 毫秒，有效优先级提升 step，最高提升到 maxPriority，
+     * 例如 setPriorityAging(1, 1000, Priority.DEFAULT) 表示低于默认优先级的任务每等待 1 秒提升 1，
+     * 最多提升到和默认优先级的任务一样，之后和它们按排队的先后顺序执行
+     *
+     * @param step        每个间隔提升的优先级，范围 1-1000000
+     * @param interval    间隔，单位 ms，范围 1ms-1天
+     * @param maxPriority 老化能达到的最高优先级，原始优先级不低于它的任务不受影响
+     */
+    public void setPriorityAging(int step, long interval, int maxPriority) {
+        if (step <= 0 || step > 1000000) throw new IllegalArgumentException("step must be in [1, 1000000]");
+        if (interval <= 0 || interval > TimeUnit.DAYS.toMillis(1)) throw new IllegalArgumentException("interval must be in [1ms, 1 day]");
+        synchronized (DownloadThreadPool.class) {
+            agingStep = step;
+            agingInterval = interval;
+            agingMaxPriority = maxPriority;
+            applyAgingToAll();
+        }
+    }
+
+    /** 关闭优先级老化，正在排队的任务恢复原始优先级 */
+    public void disablePriorityAging() {
+        synchronized (DownloadThreadPool.class) {
+            agingStep = 0;
+            applyAgingToAll();
+        }
+    }
+
+    public boolean isPriorityAging() {
+        synchronized (DownloadThreadPool.class) {
+            return agingStep > 0;
+        }
+    }
+
+    private void applyAgingToAll() {
+        if (executor != null) applyAging(executor);
+        for (SizeLane lane : lanes) {
+            applyAging(lane.executor);
+        }
+    }
+
+    /** 需要持有 DownloadThreadPool.class 锁 */
+    private void applyAging(XExecutor target) {
+        PriorityBlockingQueue<Runnable> queue = (PriorityBlockingQueue<Runnable>) target.getQueue();
+        if (agingStep > 0) {
+            queue.setAging(agingStep, agingInterval, agingMaxPriority);
+        } else {
+            queue.disableAging();
+        }
+    }
+
+    /**
+     * 开启抢占，优先级不低于 minPriority 的任务开始排队或者提高优先级时，如果所在的线程池没有空闲的线程，
+     * 正在下载的优先级最低并且低于它的任务会回到队列中等待，让出线程，被抢占的任务不会回调暂停，之后从断点继续下载
+     *
+     * @param minPriority 能够抢占其他任务的最低优先级，例如 Priority.UI_NORMAL 表示只有用户主动开始的下载可以抢占
+     */
+    public void enablePreemption(int minPriority) {
+        preemptPriority = minPriority;
+        isPreemptive = true;
+    }
+
+    public void disablePreemption() {
+        isPreemptive = false;
+    }
+
+    public boolean isPreemptive() {
+        return isPreemptive;
+    }
+
+    /** 下载线程开始执行任务 */
+    void onTaskStart(DownloadTask task, ThreadPoolExecutor target) {
+        if (target != null) runningTasks.put(task, target);
+    }
+
+    /** 下载线程执行结束 */
+    void onTaskEnd(DownloadTask task) {
+        runningTasks.remove(task);
+    }
+
+    /**
+     * 任务在 target 中排队后调用，需要抢占时在其他线程中执行，调用者可以持有任务的锁
+     */
+    void requestPreemption(final DownloadTask task, final ThreadPoolExecutor target) {
+        if (!isPreemptive || task.progress.priority < preemptPriority) return;
+        getTransferExecutor().execute(() -> preempt(task, target));
+    }
+
+    private void preempt(DownloadTask task, ThreadPoolExecutor target) {
+        //同一时间只做一次决策，被抢占的任务已经不是下载中的状态，不会被重复抢占
+        synchronized (preemptLock) {
+            int priority = task.progress.priority;
+            if (!isPreemptive || priority < preemptPriority || !task.isQueued()) return;
+            int loading = 0;
+            DownloadTask victim = null;
+            for (Map.Entry<DownloadTask, ThreadPoolExecutor> entry : runningTasks.entrySet()) {
+                if (entry.getValue() != target) continue;
+                DownloadTask running = entry.getKey();
+                if (running.progress.status != Progress.LOADING) continue;
+                loading++;
+                if (running.progress.priority < priority && (victim == null || running.progress.priority < victim.progress.priority)) {
+                    victim = running;
+                }
+            }
+            //还有空闲的线程，或者有线程即将空闲
+            if (loading < target.getCorePoolSize() || victim == null) return;
+            victim.preempt();
+        }
+    }
+
+    /**
+     * 按剩余长度选择线程池并放入任务，选择和放入在同一个锁内完成，不会放入正在被删除的分级通道
+     *
+     * @param size 剩余长度，小于0表示未知
+     * @return 任务所在的线程池
+     */
+    public XExecutor execute(long size, Runnable runnable) {
+        synchronized (DownloadThreadPool.class) {
+            XExecutor target = getExecutor(size);
+            target.execute(runnable);
+            return target;
+        }
+    }
+
+    /** 所有线程池，包括分级通道的线程池中的任务都结束后回调，在主线程中调用 */
+    public void addOnAllTaskEndListener(XExecutor.OnAllTaskEndListener listener) {
+        if (listener != null) allTaskEndListeners.add(listener);
+    }
+
+    public void removeOnAllTaskEndListener(XExecutor.OnAllTaskEndListener listener) {
+        allTaskEndListeners.remove(listener);
+    }
+
+    /** 某个线程池的任务全部结束时，其他线程池也空闲才算所有任务结束 */
+    private void watch(final XExecutor target) {
+        target.addOnAllTaskEndListener(() -> {
+            List<XExecutor> executors = new ArrayList<>();
+            executors.add(executor);
+            for (SizeLane lane : lanes) {
+                executors.add(lane.executor);
+            }
+            for (XExecutor other : executors) {
+                if (other != null && other != target && (other.getActiveCount() > 0 || other.getQueue().size() > 0)) return;
+            }
+            for (XExecutor.OnAllTaskEndListener listener : allTaskEndListeners) {
+                listener.onAllTaskEnd();
+            }
+        });
     }
 
     /** 执行任务 */
@@ -72,4 +419,27 @@ public class DownloadThreadPool {
             getExecutor().remove(runnable);
         }
     }
+
+    private static class SizeLane {
+        final long maxSize;
+        final XExecutor executor;
+
+        SizeLane(long maxSize, int poolSize) {
+            this.maxSize = maxSize;
+            executor = new XExecutor(poolSize, poolSize, KEEP_ALIVE_TIME, UNIT, //
+                                     new PriorityBlockingQueue<Runnable>(), //
+                                     Executors.defaultThreadFactory(),      //
+                                     new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        void setPoolSize(int size) {
+            if (size > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(size);
+                executor.setCorePoolSize(size);
+            } else {
+                executor.setCorePoolSize(size);
+                executor.setMaximumPoolSize(size);
+            }
+        }
+    }
 }
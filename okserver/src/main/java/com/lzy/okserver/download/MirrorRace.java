@@ -0,0 +1,126 @@
+package com.lzy.okserver.download;
+
+import com.lzy.okgo.utils.IOUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：同时向多个镜像地址发起相同的请求，最先收到第一个字节的响应胜出，其余的请求立即取消
+ * 修订历史：
+ * ================================================
+ */
+class MirrorRace {
+
+    private final Call[] calls;
+    private final BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+    private boolean isDecided;
+
+    MirrorRace(Call... calls) {
+        this.calls = calls;
+    }
+
+    /**
+     * 等待比赛的结果，所有请求都失败时返回第一个失败的响应，都没有响应时抛出第一个异常
+     */
+    Result await() throws IOException {
+        for (int i = 0; i < calls.length; i++) {
+            final int index = i;
+            calls[i].enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    offer(new Result(index, null, e));
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    ResponseBody body = response.body();
+                    if (response.code() < 400 && body != null) {
+                        try {
+                            //等待第一个字节到达，响应头到达得早不代表传输得快
+                            body.source().request(1);
+                        } catch (IOException e) {
+                            IOUtils.closeQuietly(body);
+                            offer(new Result(index, null, e));
+                            return;
+                        }
+                    }
+                    offer(new Result(index, response, null));
+                }
+            });
+        }
+        Result failed = null;
+        try {
+            for (int i = 0; i < calls.length; i++) {
+                Result result = results.take();
+                if (result.isSuccessful()) {
+                    decide(result);
+                    return result;
+                }
+                if (failed == null || failed.response == null && result.response != null) {
+                    if (failed != null) failed.close();
+                    failed = result;
+                } else {
+                    result.close();
+                }
+            }
+        } catch (InterruptedException e) {
+            decide(null);
+            if (failed != null) failed.close();
+            throw new InterruptedIOException("the mirror race was interrupted");
+        }
+        decide(failed);
+        if (failed.response == null) throw failed.error;
+        return failed;
+    }
+
+    private synchronized void offer(Result result) {
+        if (isDecided) {
+            result.close();
+        } else {
+            results.add(result);
+        }
+    }
+
+    /** 结束比赛，取消其余的请求，关闭已经到达但没有使用的响应 */
+    private synchronized void decide(Result winner) {
+        isDecided = true;
+        for (int i = 0; i < calls.length; i++) {
+            if (winner == null || i != winner.index) calls[i].cancel();
+        }
+        Result result;
+        while ((result = results.poll()) != null) {
+            result.close();
+        }
+    }
+
+    static class Result {
+        final int index;                //胜出的请求在参数中的位置
+        final Response response;
+        final IOException error;
+
+        Result(int index, Response response, IOException error) {
+            this.index = index;
+            this.response = response;
+            this.error = error;
+        }
+
+        boolean isSuccessful() {
+            return response != null && response.code() < 400;
+        }
+
+        void close() {
+            if (response != null) IOUtils.closeQuietly(response.body());
+        }
+    }
+}
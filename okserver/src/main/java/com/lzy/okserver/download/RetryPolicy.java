@@ -0,0 +1,104 @@
+package com.lzy.okserver.download;
+
+import com.lzy.okgo.exception.HttpException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：下载失败后的自动重试策略，指数退避加随机抖动，
+ * 可以配置最大重试次数、哪些异常和哪些 http 状态码需要重试
+ * 修订历史：
+ * ================================================
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_RETRIES = 5;
+    public static final long DEFAULT_INITIAL_DELAY = 1000;     //第一次重试前的等待时间，单位 ms
+    public static final long DEFAULT_MAX_DELAY = 60 * 1000;     //最长的等待时间，单位 ms
+    public static final float DEFAULT_MULTIPLIER = 2f;          //每次重试等待时间的倍数
+    public static final float DEFAULT_JITTER = 0.5f;            //等待时间随机减少的最大比例
+
+    private static final Random RANDOM = new Random();
+
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long initialDelay = DEFAULT_INITIAL_DELAY;
+    private long maxDelay = DEFAULT_MAX_DELAY;
+    private float multiplier = DEFAULT_MULTIPLIER;
+    private float jitter = DEFAULT_JITTER;
+    private final Set<Integer> retryableCodes = new HashSet<>(Arrays.asList(408, 429, 500, 502, 503, 504));
+    private final List<Class<? extends Throwable>> retryableExceptions = new ArrayList<>();
+
+    public RetryPolicy() {
+        retryableExceptions.add(IOException.class);
+    }
+
+    /** 最多重试的次数，不包括第一次请求 */
+    public RetryPolicy maxRetries(int maxRetries) {
+        this.maxRetries = Math.max(maxRetries, 0);
+        return this;
+    }
+
+    /**
+     * 退避的参数，第 n 次重试前等待 initialDelay * multiplier^(n-1)，不超过 maxDelay
+     */
+    public RetryPolicy backoff(long initialDelay, long maxDelay, float multiplier) {
+        this.initialDelay = Math.max(initialDelay, 0);
+        this.maxDelay = Math.max(maxDelay, this.initialDelay);
+        this.multiplier = Math.max(multiplier, 1f);
+        return this;
+    }
+
+    /** 随机抖动的比例，0 表示不抖动，1 表示在 0 到退避时间之间随机，避免大量任务同时重试 */
+    public RetryPolicy jitter(float jitter) {
+        this.jitter = Math.min(Math.max(jitter, 0f), 1f);
+        return this;
+    }
+
+    /** 设置需要重试的 http 状态码，会替换默认的 408, 429, 500, 502, 503, 504 */
+    public RetryPolicy retryOnCodes(Integer... codes) {
+        retryableCodes.clear();
+        retryableCodes.addAll(Arrays.asList(codes));
+        return this;
+    }
+
+    /** 设置需要重试的异常类型，包括子类，会替换默认的 IOException */
+    public RetryPolicy retryOnExceptions(Collection<Class<? extends Throwable>> exceptions) {
+        retryableExceptions.clear();
+        retryableExceptions.addAll(exceptions);
+        return this;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param code 本次请求的响应码，没有收到响应时为 0
+     */
+    public boolean isRetryable(Throwable throwable, int code) {
+        if (throwable instanceof HttpException) return retryableCodes.contains(code);
+        for (Class<? extends Throwable> clazz : retryableExceptions) {
+            if (clazz.isInstance(throwable)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 第 retry 次重试前需要等待的时间，单位 ms
+     */
+    public long getDelay(int retry) {
+        double delay = initialDelay * Math.pow(multiplier, Math.max(retry - 1, 0));
+        delay = Math.min(delay, maxDelay);
+        return (long) (delay * (1 - jitter * RANDOM.nextFloat()));
+    }
+}
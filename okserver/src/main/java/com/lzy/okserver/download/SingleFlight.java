@@ -0,0 +1,150 @@
+package com.lzy.okserver.download;
+
+import com.lzy.okgo.model.Progress;
+import com.lzy.okgo.utils.OkLogger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.HttpUrl;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：相同资源的下载合并，规范化后的 url 和校验标识（ETag 或 Last-Modified）都相同的任务共用一个连接，
+ * 第一个开始执行的任务负责下载，其余任务只同步进度，完成后通过硬链接或者复制得到各自的文件
+ * 修订历史：
+ * ================================================
+ */
+public class SingleFlight {
+
+    private final Map<String, Flight> flights = new HashMap<>();       //正在进行的下载，key 为资源的标识
+    private final Map<DownloadTask, Flight> leaders = new HashMap<>();   //负责下载的任务所在的下载
+    private final Map<DownloadTask, Flight> followers = new HashMap<>(); //跟随者所在的下载
+    private volatile boolean enabled;
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 任务开始执行时调用，已经有相同资源的下载时加入该下载。
+     * 只有完成后得到一个文件的任务可以调用，流式下载和边下载边解压的任务不能作为负责者或者跟随者
+     *
+     * @return true 表示已经作为跟随者加入，当前任务不需要自己下载
+     */
+    boolean join(DownloadTask task) {
+        if (!enabled) return false;
+        String key = keyOf(task.progress);
+        if (key == null) return false;
+        synchronized (this) {
+            Flight flight = flights.get(key);
+            //已经下载了部分数据的任务继续使用自己的断点
+            if (flight != null && flight.leader != task && task.progress.currentSize == 0 && !task.hasSegments()) {
+                flight.followers.add(task);
+                followers.put(task, flight);
+                return true;
+            }
+            if (flight == null && !leaders.containsKey(task)) {
+                flight = new Flight(key, task);
+                flights.put(key, flight);
+                leaders.put(task, flight);
+            }
+            return false;
+        }
+    }
+
+    /** 跟随者暂停或者删除时调用，离开所在的下载 */
+    synchronized boolean leave(DownloadTask task) {
+        Flight flight = followers.remove(task);
+        if (flight == null) return false;
+        flight.followers.remove(task);
+        return true;
+    }
+
+    public synchronized boolean isFollower(DownloadTask task) {
+        return followers.containsKey(task);
+    }
+
+    /** 负责下载的任务进度变化，同步给所有的跟随者 */
+    void onProgress(DownloadTask leader) {
+        List<DownloadTask> list = followersOf(leader, false);
+        if (list == null) return;
+        for (DownloadTask follower : list) {
+            follower.onFlightProgress(leader.progress);
+        }
+    }
+
+    /** 负责下载的任务完成，为每个跟随者创建各自的文件 */
+    void onFinish(DownloadTask leader, File file) {
+        List<DownloadTask> list = followersOf(leader, true);
+        if (list == null) return;
+        for (DownloadTask follower : list) {
+            follower.onFlightFinish(leader.progress, file);
+        }
+    }
+
+    /** 负责下载的任务出错，跟随者使用同样的错误结束 */
+    void onError(DownloadTask leader, Throwable throwable) {
+        List<DownloadTask> list = followersOf(leader, true);
+        if (list == null) return;
+        for (DownloadTask follower : list) {
+            follower.onFlightError(throwable);
+        }
+    }
+
+    /** 负责下载的任务暂停或者被删除，跟随者重新排队，其中第一个开始执行的任务成为新的负责者 */
+    void onRelease(DownloadTask leader) {
+        List<DownloadTask> list = followersOf(leader, true);
+        if (list == null) return;
+        for (DownloadTask follower : list) {
+            follower.onFlightRelease();
+        }
+    }
+
+    /**
+     * @param end 为 true 时结束该下载，之后相同资源的任务会开始新的下载
+     */
+    private synchronized List<DownloadTask> followersOf(DownloadTask leader, boolean end) {
+        Flight flight = end ? leaders.remove(leader) : leaders.get(leader);
+        if (flight == null) return null;
+        if (end) {
+            flights.remove(flight.key);
+            for (DownloadTask follower : flight.followers) {
+                followers.remove(follower);
+            }
+        }
+        return flight.followers.isEmpty() ? null : new ArrayList<>(flight.followers);
+    }
+
+    /** 资源的标识，scheme 和 host 忽略大小写，省略默认端口和 fragment */
+    private static String keyOf(Progress progress) {
+        if (progress.url == null) return null;
+        HttpUrl url = HttpUrl.parse(progress.url);
+        if (url == null) {
+            OkLogger.w("can't parse url " + progress.url + ", the task with tag " + progress.tag + " will not be merged");
+            return null;
+        }
+        String validator = progress.extra1 == null ? "" : progress.extra1.toString();
+        return url.newBuilder().fragment(null).build().toString() + "\n" + validator;
+    }
+
+    private static class Flight {
+        final String key;
+        final DownloadTask leader;
+        final List<DownloadTask> followers = new ArrayList<>();
+
+        Flight(String key, DownloadTask leader) {
+            this.key = key;
+            this.leader = leader;
+        }
+    }
+}
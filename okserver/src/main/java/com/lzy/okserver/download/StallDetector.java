@@ -0,0 +1,127 @@
+package com.lzy.okserver.download;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：下载连接的卡顿检测，连接没有断开但是速度在一段时间内一直低于设定的下限时，
+ * 主动断开连接，由下载任务从断点处重新建立连接
+ * 修订历史：
+ * ================================================
+ */
+public class StallDetector {
+
+    public static final int DEFAULT_MAX_RECONNECTS = 5;         //连续重连的默认最大次数
+    private static final long CHECK_INTERVAL = 1000;            //检查的间隔，单位 ms
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor();
+
+    private final long minSpeed;
+    private final long window;
+    private final int maxReconnects;
+
+    /**
+     * @param minSpeed      速度的下限，单位 byte/s
+     * @param window        速度在这段时间内一直低于下限才认为卡顿，单位 ms
+     * @param maxReconnects 一次下载中最多重连的次数，超过后按照普通的错误处理
+     */
+    public StallDetector(long minSpeed, long window, int maxReconnects) {
+        this.minSpeed = minSpeed;
+        this.window = Math.max(window, CHECK_INTERVAL);
+        this.maxReconnects = maxReconnects;
+    }
+
+    public StallDetector(long minSpeed, long window) {
+        this(minSpeed, window, DEFAULT_MAX_RECONNECTS);
+    }
+
+    public int getMaxReconnects() {
+        return maxReconnects;
+    }
+
+    /** 开始监视一个连接，读取数据必须使用返回的 Watch#source() */
+    Watch watch(Call call, BufferedSource source) {
+        return new Watch(call, source);
+    }
+
+    /** 一个连接的监视 */
+    class Watch {
+        private final Call call;
+        private final BufferedSource source;
+        private final AtomicLong bytes = new AtomicLong();
+        private final long[] samples;                   //最近一个窗口内每次检查时已经读取的字节数
+        private final ScheduledFuture<?> future;
+        private int sampleCount;
+        private volatile boolean reading;               //读取线程是否正在等待网络数据
+        private volatile boolean stalled;
+
+        Watch(Call call, BufferedSource source) {
+            this.call = call;
+            this.source = Okio.buffer(new ForwardingSource(source) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    reading = true;
+                    try {
+                        long len = super.read(sink, byteCount);
+                        if (len > 0) bytes.addAndGet(len);
+                        return len;
+                    } finally {
+                        reading = false;
+                    }
+                }
+            });
+            samples = new long[(int) (window / CHECK_INTERVAL)];
+            future = SCHEDULER.scheduleAtFixedRate(this::check, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+
+        BufferedSource source() {
+            return source;
+        }
+
+        /** 连接是否因为卡顿被断开 */
+        boolean isStalled() {
+            return stalled;
+        }
+
+        void close() {
+            future.cancel(false);
+        }
+
+        private void check() {
+            long current = bytes.get();
+            if (!reading) {
+                //读取线程在等待限速、磁盘写入等，速度慢不是连接的问题，重新开始计算窗口
+                for (int i = 0; i < samples.length; i++) {
+                    samples[i] = current;
+                }
+                sampleCount = 0;
+                return;
+            }
+            int index = sampleCount % samples.length;
+            long oldest = samples[index];
+            samples[index] = current;
+            sampleCount++;
+            //连接刚建立时数据不足一个窗口，不做判断
+            if (sampleCount < samples.length) return;
+            long speed = (current - oldest) * 1000 / (samples.length * CHECK_INTERVAL);
+            if (speed < minSpeed) {
+                stalled = true;
+                close();
+                call.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.lzy.okserver.download;
+
+import com.lzy.okgo.model.Progress;
+import com.lzy.okgo.utils.HttpUtils;
+import com.lzy.okgo.utils.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：下载文件的可读水位，从文件开头连续写入的字节数，只包括已经写入文件的数据，
+ * 等待的线程和回调在水位上涨、任务暂停、出错、完成或者删除时被唤醒
+ * 修订历史：
+ * ================================================
+ */
+class Watermark {
+
+    private final Progress progress;
+    private volatile long size;
+    private boolean isRemoved;
+    private final List<Pending> pendings = new ArrayList<>();
+
+    Watermark(Progress progress, long size) {
+        this.progress = progress;
+        this.size = size;
+    }
+
+    long get() {
+        return size;
+    }
+
+    /** 重新设置水位，文件被删除或者重新下载时水位会降低 */
+    void set(long size) {
+        synchronized (this) {
+            this.size = size;
+            notifyAll();
+        }
+        dispatch();
+    }
+
+    /** 写文件线程调用，只会上涨 */
+    void advance(long size) {
+        if (size <= this.size) return;
+        synchronized (this) {
+            if (size <= this.size) return;
+            this.size = size;
+            notifyAll();
+        }
+        dispatch();
+    }
+
+    /** 任务的状态改变后唤醒等待的线程，不再下载的任务不会继续等待 */
+    void wake() {
+        synchronized (this) {
+            notifyAll();
+        }
+        dispatch();
+    }
+
+    void remove() {
+        synchronized (this) {
+            isRemoved = true;
+        }
+        wake();
+    }
+
+    /**
+     * @param timeout 最长等待的时间，单位 ms，小于等于0表示一直等待
+     */
+    synchronized boolean await(long end, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (size < end && isWaitable()) {
+            if (timeout <= 0) {
+                wait();
+            } else {
+                long waitTime = deadline - System.currentTimeMillis();
+                if (waitTime <= 0) break;
+                wait(waitTime);
+            }
+        }
+        return size >= end;
+    }
+
+    void whenAvailable(long end, DownloadTask.OnAvailableListener listener) {
+        synchronized (this) {
+            if (size < end && isWaitable()) {
+                pendings.add(new Pending(end, listener));
+                return;
+            }
+        }
+        post(listener, size);
+    }
+
+    /** 还在排队或者下载中的任务继续等待，完成的任务水位不会再变化 */
+    private boolean isWaitable() {
+        int status = progress.status;
+        return !isRemoved && (status == Progress.NONE || status == Progress.WAITING || status == Progress.LOADING);
+    }
+
+    private void dispatch() {
+        List<Pending> ready = null;
+        long current;
+        synchronized (this) {
+            if (pendings.isEmpty()) return;
+            current = size;
+            boolean waitable = isWaitable();
+            Iterator<Pending> iterator = pendings.iterator();
+            while (iterator.hasNext()) {
+                Pending pending = iterator.next();
+                if (current >= pending.end || !waitable) {
+                    iterator.remove();
+                    if (ready == null) ready = new ArrayList<>();
+                    ready.add(pending);
+                }
+            }
+        }
+        if (ready == null) return;
+        for (Pending pending : ready) {
+            post(pending.listener, current);
+        }
+    }
+
+    private static void post(final DownloadTask.OnAvailableListener listener, final long size) {
+        HttpUtils.runOnUiThread(() -> listener.onAvailable(size));
+    }
+
+    private static class Pending {
+        final long end;
+        final DownloadTask.OnAvailableListener listener;
+
+        Pending(long end, DownloadTask.OnAvailableListener listener) {
+            this.end = end;
+            this.listener = listener;
+        }
+    }
+
+    /** 读取正在下载的文件，数据还没有写入时等待，读到水位之外的位置之前不会返回 -1 */
+    static class Reader extends InputStream {
+        private final DownloadTask task;
+        private final Watermark watermark;
+        private long position;
+        private RandomAccessFile file;
+
+        Reader(DownloadTask task, Watermark watermark, long position) {
+            this.task = task;
+            this.watermark = watermark;
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            try {
+                watermark.await(position + 1, 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for the download");
+            }
+            long available = watermark.get();
+            if (available <= position) {
+                if (task.progress.status == Progress.FINISH) return -1;
+                throw new IOException("the task with tag " + task.progress.tag + " stopped at " + available + ", status is " + task.progress.status);
+            }
+            //文件在打开之后被改名也可以继续读取
+            if (file == null) file = new RandomAccessFile(task.getDownloadFile(), "r");
+            file.seek(position);
+            int count = file.read(b, off, (int) Math.min(len, available - position));
+            if (count == -1) throw new IOException("the file is shorter than the available size " + available);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            if (n <= 0) return 0;
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(watermark.get() - position, 0));
+        }
+
+        @Override
+        public void close() {
+            IOUtils.closeQuietly(file);
+        }
+    }
+}
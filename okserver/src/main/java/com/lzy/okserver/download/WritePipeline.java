@@ -0,0 +1,214 @@
+package com.lzy.okserver.download;
+
+import com.lzy.okgo.model.Segment;
+import com.lzy.okgo.utils.IOUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import okio.BufferedSource;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：读网络和写文件分离的管道，网络线程把数据读入固定数量的缓冲块，
+ * 由单独的写文件线程按顺序写入文件，缓冲块用完时网络线程阻塞等待，形成背压
+ * 修订历史：
+ * ================================================
+ */
+public class WritePipeline implements Closeable {
+
+    private static final int CHUNK_SIZE = 1024 * 64;                    //每个缓冲块的大小
+    private static final int CHUNK_COUNT = 8;                           //每个任务的缓冲块数量
+    private static final long POLL_TIMEOUT = 100;                       //等待缓冲块时检查错误的间隔，单位 ms
+    private static final BlockingQueue<ByteBuffer> POOL = new ArrayBlockingQueue<>(64); //所有任务共用的缓冲块
+    private static final Chunk END = new Chunk(null);                   //通知写文件线程结束
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final BlockingQueue<Chunk> freeChunks = new ArrayBlockingQueue<>(CHUNK_COUNT);
+    private final BlockingQueue<Chunk> filledChunks = new ArrayBlockingQueue<>(CHUNK_COUNT + 1);
+    private final CountDownLatch writerDone = new CountDownLatch(1);
+    private final DownloadMetrics metrics;
+    private final OnWriteListener listener;
+    private volatile DownloadDigest digest;
+    private volatile IOException error;
+    private volatile boolean closed;
+    private boolean finished;
+
+    public WritePipeline(File file, Executor executor, DownloadMetrics metrics, OnWriteListener listener) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        this.metrics = metrics;
+        this.listener = listener;
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            freeChunks.add(new Chunk(obtainBuffer()));
+        }
+        try {
+            executor.execute(this::writeLoop);
+        } catch (RuntimeException e) {
+            releaseBuffers();
+            IOUtils.closeQuietly(this.file);
+            throw e;
+        }
+    }
+
+    /** 设置后写文件线程在写入的同时计算摘要，必须在开始读取前设置 */
+    void setDigest(DownloadDigest digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * 网络线程调用，从 source 中读取最多 maxBytes 字节，交给写文件线程写入 position 位置
+     *
+     * @param segment  数据所属的分段，单连接下载时为 null
+     * @param position 数据在文件中的位置
+     * @return 读取的字节数，-1 表示数据已经读完
+     */
+    public int read(BufferedSource source, Segment segment, long position, long maxBytes) throws IOException {
+        if (maxBytes <= 0) return 0;
+        Chunk chunk = takeFreeChunk();
+        ByteBuffer buffer = chunk.buffer;
+        buffer.clear();
+        if (maxBytes < buffer.capacity()) buffer.limit((int) maxBytes);
+        int total = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                int len = source.read(buffer);
+                if (len == -1) break;
+                total += len;
+            }
+        } catch (IOException | RuntimeException e) {
+            freeChunks.offer(chunk);
+            throw e;
+        }
+        if (total == 0) {
+            freeChunks.offer(chunk);
+            return -1;
+        }
+        buffer.flip();
+        chunk.segment = segment;
+        chunk.position = position;
+        filledChunks.offer(chunk);
+        return total;
+    }
+
+    /** 等待所有已读取的数据写入文件，写文件出错时抛出异常 */
+    public void finish() throws IOException {
+        if (!finished) {
+            finished = true;
+            filledChunks.offer(END);
+        }
+        try {
+            writerDone.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while waiting for the write pipeline");
+        }
+        if (error != null) throw error;
+    }
+
+    @Override
+    public void close() {
+        try {
+            finish();
+        } catch (IOException e) {
+            //错误已经在 finish 中抛出过
+        }
+        closed = true;
+        releaseBuffers();
+        IOUtils.closeQuietly(channel);
+        IOUtils.closeQuietly(file);
+    }
+
+    private Chunk takeFreeChunk() throws IOException {
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                if (error != null) throw error;
+                if (closed) throw new IOException("write pipeline is closed");
+                Chunk chunk = freeChunks.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (chunk != null) return chunk;
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while waiting for a free chunk");
+        } finally {
+            metrics.addNetworkBlocked(System.nanoTime() - start);
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                long start = System.nanoTime();
+                Chunk chunk = filledChunks.take();
+                metrics.addDiskBlocked(System.nanoTime() - start);
+                if (chunk == END) break;
+                if (error == null) {
+                    try {
+                        int length = chunk.buffer.remaining();
+                        long position = chunk.position;
+                        if (digest != null) digest.update(chunk.buffer, position);
+                        while (chunk.buffer.hasRemaining()) {
+                            position += channel.write(chunk.buffer, position);
+                        }
+                        listener.onWrite(chunk.segment, length);
+                    } catch (IOException e) {
+                        error = e;
+                    } catch (RuntimeException e) {
+                        error = new IOException(e);
+                    }
+                }
+                chunk.segment = null;
+                freeChunks.offer(chunk);
+            }
+        } catch (InterruptedException e) {
+            if (error == null) error = new InterruptedIOException("write pipeline interrupted");
+        } finally {
+            writerDone.countDown();
+        }
+    }
+
+    private static ByteBuffer obtainBuffer() {
+        ByteBuffer buffer = POOL.poll();
+        if (buffer != null) return buffer;
+        try {
+            return ByteBuffer.allocateDirect(CHUNK_SIZE);
+        } catch (Throwable e) {
+            return ByteBuffer.allocate(CHUNK_SIZE);
+        }
+    }
+
+    private void releaseBuffers() {
+        Chunk chunk;
+        while ((chunk = freeChunks.poll()) != null) {
+            chunk.buffer.clear();
+            POOL.offer(chunk.buffer);
+        }
+    }
+
+    public interface OnWriteListener {
+        /** 数据写入文件后在写文件线程中回调 */
+        void onWrite(Segment segment, int length);
+    }
+
+    private static class Chunk {
+        final ByteBuffer buffer;
+        Segment segment;
+        long position;
+
+        Chunk(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
@@ -18,12 +18,12 @@ package com.lzy.okserver.task;
 import com.lzy.okgo.model.Priority;
 
 import java.util.AbstractQueue;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -35,139 +35,66 @@ import java.util.concurrent.locks.ReentrantLock;
  * 描    述：带有优先级的阻塞队列
  * 修订历史：
  * ================================================
+ * <p>
+ * 2026-10-17
+ * 内部由有序链表改为二叉堆，入队和出队都是 O(log n)，只使用一把锁，
+ * 优先级相同时按入队的顺序出队
+ * <p>
+ * 2026-10-17
+ * 支持优先级老化，等待时间越长有效优先级越高，避免低优先级的任务一直等待
+ * <p>
+ * 2026-10-17
+ * 支持修改队列中元素的优先级，PriorityObject 记录自己所在的堆节点，调整位置是 O(log n)
  */
 public class PriorityBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E>, java.io.Serializable {
     private static final long serialVersionUID = -6903933977591709194L;
 
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
     /**
      * The capacity bound, or Integer.MAX_VALUE if none
      */
     private final int capacity;
 
     /**
-     * Current number of elements
-     */
-    private final AtomicInteger count = new AtomicInteger();
-
-    /**
-     * Head of linked list.
-     * Invariant: head.item == null
-     */
-    transient Node<E> head;
-
-    /**
-     * Tail of linked list.
-     * Invariant: last.next == null
-     */
-    private transient Node<E> last;
-
-    /**
-     * Lock held by take, poll, etc
+     * Main lock guarding all access
      */
-    private final ReentrantLock takeLock = new ReentrantLock();
+    private final ReentrantLock lock = new ReentrantLock();
 
     /**
      * Wait queue for waiting takes
      */
-    private final Condition notEmpty = takeLock.newCondition();
-
-    /**
-     * Lock held by put, offer, etc
-     */
-    private final ReentrantLock putLock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
 
     /**
      * Wait queue for waiting puts
      */
-    private final Condition notFull = putLock.newCondition();
+    private final Condition notFull = lock.newCondition();
 
     /**
-     * Signals a waiting take. Called only from put/offer (which do not
-     * otherwise ordinarily lock takeLock.)
+     * 优先级固定的元素：没有开启老化、原始优先级已经达到老化上限或者老化后达到上限的元素
      */
-    private void signalNotEmpty() {
-        final ReentrantLock takeLock = this.takeLock;
-        takeLock.lock();
-        try {
-            notEmpty.signal();
-        } finally {
-            takeLock.unlock();
-        }
-    }
+    private transient Heap fixed;
 
     /**
-     * Signals a waiting put. Called only from take/poll.
+     * 正在老化的元素，所有元素的优先级按相同的速度上升，相对顺序不随时间变化，
+     * 堆顶的元素最先达到上限，达到上限后移入 fixed，fixed 中的元素总是先于这里的元素出队
      */
-    private void signalNotFull() {
-        final ReentrantLock putLock = this.putLock;
-        putLock.lock();
-        try {
-            notFull.signal();
-        } finally {
-            putLock.unlock();
-        }
-    }
-
-    private synchronized E opQueue(Node<E> node) {
-        if (node == null) {
-            return _dequeue();
-        } else {
-            _enqueue(node);
-            return null;
-        }
-    }
-
-    // only invoke in opQueue
-    private void _enqueue(Node<E> node) {
-        boolean added = false;
-
-        Node<E> curr = head;
-        Node<E> temp = null;
-
-        while (curr.next != null) {
-            temp = curr.next;
-            if (temp.getPriority() < node.getPriority()) {
-                curr.next = node;
-                node.next = temp;
-                added = true;
-                break;
-            }
-            curr = curr.next;
-        }
-
-        if (!added) {
-            last = last.next = node;
-        }
-    }
-
-    // only invoke in opQueue
-    private E _dequeue() {
-        // assert takeLock.isHeldByCurrentThread();
-        // assert head.item == null;
-        Node<E> h = head;
-        Node<E> first = h.next;
-        h.next = h; // help GC
-        head = first;
-        E x = first.getValue();
-        first.setValue(null);
-        return x;
-    }
+    private transient Heap aging;
 
     /**
-     * Locks to prevent both puts and takes.
+     * 入队的序号，优先级相同时序号小的先出队
      */
-    void fullyLock() {
-        putLock.lock();
-        takeLock.lock();
-    }
+    private transient long sequence;
 
     /**
-     * Unlocks to allow both puts and takes.
+     * 计时的起点，入队时间都是相对这个时间的毫秒数，保证老化计算时不会溢出
      */
-    void fullyUnlock() {
-        takeLock.unlock();
-        putLock.unlock();
-    }
+    private transient long origin = uptimeMillis();
+
+    private int agingStep;              //每个老化间隔提升的优先级，0 表示不老化
+    private long agingInterval;         //老化间隔，单位 ms
+    private int agingMaxPriority;       //老化能达到的最高优先级
 
     public PriorityBlockingQueue() {
         this(Integer.MAX_VALUE);
@@ -176,260 +103,201 @@ public class PriorityBlockingQueue<E> extends AbstractQueue<E> implements Blocki
     public PriorityBlockingQueue(int capacity) {
         if (capacity <= 0) throw new IllegalArgumentException();
         this.capacity = capacity;
-        last = head = new Node<E>(null);
+        initHeaps();
     }
 
     public PriorityBlockingQueue(Collection<? extends E> c) {
         this(Integer.MAX_VALUE);
-        final ReentrantLock putLock = this.putLock;
-        putLock.lock(); // Never contended, but necessary for visibility
+        final ReentrantLock lock = this.lock;
+        lock.lock(); // Never contended, but necessary for visibility
         try {
-            int n = 0;
             for (E e : c) {
                 if (e == null) throw new NullPointerException();
-                if (n == capacity) throw new IllegalStateException("Queue full");
-                opQueue(new Node<E>(e));
-                ++n;
+                enqueue(e);
             }
-            count.set(n);
         } finally {
-            putLock.unlock();
+            lock.unlock();
         }
     }
 
     public int size() {
-        return count.get();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return count();
+        } finally {
+            lock.unlock();
+        }
     }
 
     public int remainingCapacity() {
-        return capacity - count.get();
+        return capacity - size();
     }
 
     public void put(E e) throws InterruptedException {
         if (e == null) throw new NullPointerException();
-        // Note: convention in all put/take/etc is to preset local var
-        // holding count negative to indicate failure unless set.
-        int c = -1;
-        Node<E> node = new Node<E>(e);
-        final ReentrantLock putLock = this.putLock;
-        final AtomicInteger count = this.count;
-        putLock.lockInterruptibly();
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
         try {
-            while (count.get() == capacity) {
+            while (count() == capacity) {
                 notFull.await();
             }
-            opQueue(node);
-            c = count.getAndIncrement();
-            if (c + 1 < capacity) notFull.signal();
+            enqueue(e);
         } finally {
-            putLock.unlock();
+            lock.unlock();
         }
-        if (c == 0) signalNotEmpty();
     }
 
     public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
-
         if (e == null) throw new NullPointerException();
         long nanos = unit.toNanos(timeout);
-        int c = -1;
-        final ReentrantLock putLock = this.putLock;
-        final AtomicInteger count = this.count;
-        putLock.lockInterruptibly();
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
         try {
-            while (count.get() == capacity) {
+            while (count() == capacity) {
                 if (nanos <= 0) return false;
                 nanos = notFull.awaitNanos(nanos);
             }
-            opQueue(new Node<E>(e));
-            c = count.getAndIncrement();
-            if (c + 1 < capacity) notFull.signal();
+            enqueue(e);
+            return true;
         } finally {
-            putLock.unlock();
+            lock.unlock();
         }
-        if (c == 0) signalNotEmpty();
-        return true;
     }
 
     public boolean offer(E e) {
         if (e == null) throw new NullPointerException();
-        final AtomicInteger count = this.count;
-        if (count.get() == capacity) return false;
-        int c = -1;
-        Node<E> node = new Node<E>(e);
-        final ReentrantLock putLock = this.putLock;
-        putLock.lock();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
         try {
-            if (count.get() < capacity) {
-                opQueue(node);
-                c = count.getAndIncrement();
-                if (c + 1 < capacity) notFull.signal();
-            }
+            if (count() == capacity) return false;
+            enqueue(e);
+            return true;
         } finally {
-            putLock.unlock();
+            lock.unlock();
         }
-        if (c == 0) signalNotEmpty();
-        return c >= 0;
     }
 
     public E take() throws InterruptedException {
-        E x;
-        int c = -1;
-        final AtomicInteger count = this.count;
-        final ReentrantLock takeLock = this.takeLock;
-        takeLock.lockInterruptibly();
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
         try {
-            while (count.get() == 0) {
+            while (count() == 0) {
                 notEmpty.await();
             }
-            x = opQueue(null);
-            c = count.getAndDecrement();
-            if (c > 1) notEmpty.signal();
+            return dequeue();
         } finally {
-            takeLock.unlock();
+            lock.unlock();
         }
-        if (c == capacity) signalNotFull();
-        return x;
     }
 
     public E poll(long timeout, TimeUnit unit) throws InterruptedException {
-        E x = null;
-        int c = -1;
         long nanos = unit.toNanos(timeout);
-        final AtomicInteger count = this.count;
-        final ReentrantLock takeLock = this.takeLock;
-        takeLock.lockInterruptibly();
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
         try {
-            while (count.get() == 0) {
+            while (count() == 0) {
                 if (nanos <= 0) return null;
                 nanos = notEmpty.awaitNanos(nanos);
             }
-            x = opQueue(null);
-            c = count.getAndDecrement();
-            if (c > 1) notEmpty.signal();
+            return dequeue();
         } finally {
-            takeLock.unlock();
+            lock.unlock();
         }
-        if (c == capacity) signalNotFull();
-        return x;
     }
 
     public E poll() {
-        final AtomicInteger count = this.count;
-        if (count.get() == 0) return null;
-        E x = null;
-        int c = -1;
-        final ReentrantLock takeLock = this.takeLock;
-        takeLock.lock();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
         try {
-            if (count.get() > 0) {
-                x = opQueue(null);
-                c = count.getAndDecrement();
-                if (c > 1) notEmpty.signal();
-            }
+            return count() == 0 ? null : dequeue();
         } finally {
-            takeLock.unlock();
+            lock.unlock();
         }
-        if (c == capacity) signalNotFull();
-        return x;
     }
 
     public E peek() {
-        if (count.get() == 0) return null;
-        final ReentrantLock takeLock = this.takeLock;
-        takeLock.lock();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
         try {
-            Node<E> first = head.next;
-            if (first == null) return null;
-            else return first.getValue();
+            return count() == 0 ? null : this.<E>valueOf(first());
         } finally {
-            takeLock.unlock();
+            lock.unlock();
         }
     }
 
-    /**
-     * Unlinks interior Node p with predecessor trail.
-     */
-    void unlink(Node<E> p, Node<E> trail) {
-        // assert isFullyLocked();
-        // p.next is not changed, to allow iterators that are
-        // traversing p to maintain their weak-consistency guarantee.
-        p.setValue(null);
-        trail.next = p.next;
-        if (last == p) last = trail;
-        if (count.getAndDecrement() == capacity) notFull.signal();
-    }
-
     public boolean remove(Object o) {
         if (o == null) return false;
-        fullyLock();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
         try {
-            for (Node<E> trail = head, p = trail.next; p != null; trail = p, p = p.next) {
-                if (o.equals(p.getValue())) {
-                    unlink(p, trail);
-                    return true;
-                }
-            }
-            return false;
+            Node node = find(o);
+            if (node == null) return false;
+            removeNode(node);
+            return true;
         } finally {
-            fullyUnlock();
+            lock.unlock();
         }
     }
 
     public boolean contains(Object o) {
         if (o == null) return false;
-        fullyLock();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
         try {
-            for (Node<E> p = head.next; p != null; p = p.next)
-                if (o.equals(p.getValue())) return true;
-            return false;
+            return find(o) != null;
         } finally {
-            fullyUnlock();
+            lock.unlock();
         }
     }
 
+    /** 按出队的顺序返回所有元素 */
     public Object[] toArray() {
-        fullyLock();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
         try {
-            int size = count.get();
-            Object[] a = new Object[size];
-            int k = 0;
-            for (Node<E> p = head.next; p != null; p = p.next)
-                a[k++] = p.getValue();
+            Node[] nodes = sortedNodes();
+            Object[] a = new Object[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                a[i] = valueOf(nodes[i]);
+            }
             return a;
         } finally {
-            fullyUnlock();
+            lock.unlock();
         }
     }
 
     @SuppressWarnings("unchecked")
     public <T> T[] toArray(T[] a) {
-        fullyLock();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
         try {
-            int size = count.get();
-            if (a.length < size) a = (T[]) java.lang.reflect.Array.newInstance(a.getClass().getComponentType(), size);
-
-            int k = 0;
-            for (Node<T> p = (Node<T>) head.next; p != null; p = p.next)
-                a[k++] = (T) p.getValue();
-            if (a.length > k) a[k] = null;
+            Node[] nodes = sortedNodes();
+            if (a.length < nodes.length) a = (T[]) java.lang.reflect.Array.newInstance(a.getClass().getComponentType(), nodes.length);
+            for (int i = 0; i < nodes.length; i++) {
+                a[i] = valueOf(nodes[i]);
+            }
+            if (a.length > nodes.length) a[nodes.length] = null;
             return a;
         } finally {
-            fullyUnlock();
+            lock.unlock();
         }
     }
 
     public void clear() {
-        fullyLock();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
         try {
-            for (Node<E> p, h = head; (p = h.next) != null; h = p) {
-                h.next = h;
-                p.setValue(null);
+            long now = uptimeMillis();
+            for (Heap heap : new Heap[]{fixed, aging}) {
+                for (int i = 0; i < heap.size; i++) {
+                    if (heap.nodes[i].value instanceof PriorityObject) ((PriorityObject<?>) heap.nodes[i].value).onDequeue(now);
+                }
+                heap.clear();
             }
-            head = last;
-            // assert head.item == null && head.next == null;
-            if (count.getAndSet(0) == capacity) notFull.signal();
+            notFull.signalAll();
         } finally {
-            fullyUnlock();
+            lock.unlock();
         }
     }
 
@@ -441,118 +309,86 @@ public class PriorityBlockingQueue<E> extends AbstractQueue<E> implements Blocki
         if (c == null) throw new NullPointerException();
         if (c == this) throw new IllegalArgumentException();
         if (maxElements <= 0) return 0;
-        boolean signalNotFull = false;
-        final ReentrantLock takeLock = this.takeLock;
-        takeLock.lock();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
         try {
-            int n = Math.min(maxElements, count.get());
-            // count.query provides visibility to first n Nodes
-            Node<E> h = head;
-            int i = 0;
-            try {
-                while (i < n) {
-                    Node<E> p = h.next;
-                    c.add(p.getValue());
-                    p.setValue(null);
-                    h.next = h;
-                    h = p;
-                    ++i;
-                }
-                return n;
-            } finally {
-                // Restore invariants even if c.add() threw
-                if (i > 0) {
-                    // assert h.item == null;
-                    head = h;
-                    signalNotFull = (count.getAndAdd(-i) == capacity);
-                }
+            int n = Math.min(maxElements, count());
+            for (int i = 0; i < n; i++) {
+                //先添加再出队，添加失败时元素仍然在队列中
+                c.add(this.<E>valueOf(first()));
+                dequeue();
             }
+            return n;
         } finally {
-            takeLock.unlock();
-            if (signalNotFull) signalNotFull();
+            lock.unlock();
         }
     }
 
+    /** 遍历的是创建时的快照，按出队的顺序 */
     public Iterator<E> iterator() {
-        return new Itr();
+        return new Itr(toArray());
     }
 
     private class Itr implements Iterator<E> {
+        private final Object[] array;
+        private int cursor;
+        private int lastRet = -1;
 
-        private Node<E> current;
-        private Node<E> lastRet;
-        private E currentElement;
-
-        Itr() {
-            fullyLock();
-            try {
-                current = head.next;
-                if (current != null) currentElement = current.getValue();
-            } finally {
-                fullyUnlock();
-            }
+        Itr(Object[] array) {
+            this.array = array;
         }
 
         public boolean hasNext() {
-            return current != null;
-        }
-
-        private Node<E> nextNode(Node<E> p) {
-            for (; ; ) {
-                Node<E> s = p.next;
-                if (s == p) return head.next;
-                if (s == null || s.getValue() != null) return s;
-                p = s;
-            }
+            return cursor < array.length;
         }
 
+        @SuppressWarnings("unchecked")
         public E next() {
-            fullyLock();
-            try {
-                if (current == null) throw new NoSuchElementException();
-                E x = currentElement;
-                lastRet = current;
-                current = nextNode(current);
-                currentElement = (current == null) ? null : current.getValue();
-                return x;
-            } finally {
-                fullyUnlock();
-            }
+            if (cursor >= array.length) throw new NoSuchElementException();
+            lastRet = cursor;
+            return (E) array[cursor++];
         }
 
         public void remove() {
-            if (lastRet == null) throw new IllegalStateException();
-            fullyLock();
-            try {
-                Node<E> node = lastRet;
-                lastRet = null;
-                for (Node<E> trail = head, p = trail.next; p != null; trail = p, p = p.next) {
-                    if (p == node) {
-                        unlink(p, trail);
-                        break;
+            if (lastRet < 0) throw new IllegalStateException();
+            removeEq(array[lastRet]);
+            lastRet = -1;
+        }
+    }
+
+    /** 按引用删除，迭代器使用 */
+    private void removeEq(Object o) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (Heap heap : new Heap[]{fixed, aging}) {
+                for (int i = 0; i < heap.size; i++) {
+                    if (heap.nodes[i].value == o) {
+                        removeNode(heap.nodes[i]);
+                        return;
                     }
                 }
-            } finally {
-                fullyUnlock();
             }
+        } finally {
+            lock.unlock();
         }
     }
 
     private void writeObject(java.io.ObjectOutputStream s) throws java.io.IOException {
-
-        fullyLock();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
         try {
             // Write out any hidden stuff, plus capacity
             s.defaultWriteObject();
 
             // Write out all elements in the proper order.
-            for (Node<E> p = head.next; p != null; p = p.next)
-                s.writeObject(p.getValue());
+            for (Node node : sortedNodes())
+                s.writeObject(valueOf(node));
 
             // Use trailing null as sentinel
             s.writeObject(null);
         } finally {
-            fullyUnlock();
+            lock.unlock();
         }
     }
 
@@ -563,8 +399,9 @@ public class PriorityBlockingQueue<E> extends AbstractQueue<E> implements Blocki
         // Read in capacity, and any hidden stuff
         s.defaultReadObject();
 
-        count.set(0);
-        last = head = new Node<E>(null);
+        initHeaps();
+        sequence = 0;
+        origin = uptimeMillis();
 
         // Read in all elements and place in queue
         for (; ; ) {
@@ -575,42 +412,303 @@ public class PriorityBlockingQueue<E> extends AbstractQueue<E> implements Blocki
     }
 
     /**
-     * Linked list node class
+     * 开启优先级老化，元素在队列中每等待 interval 毫秒，有效优先级提升 step，最高提升到 maxPriority，
+     * 原始优先级已经不低于 maxPriority 的元素不受影响。老化是连续计算的，不需要定时遍历队列，
+     * 已经在队列中的元素按照它们的入队时间重新计算
+     *
+     * @param step        每个间隔提升的优先级，范围 1-1000000
+     * @param interval    间隔，单位 ms，范围 1ms-1天
+     * @param maxPriority 老化能达到的最高优先级
+     */
+    public void setAging(int step, long interval, int maxPriority) {
+        if (step <= 0 || step > 1000000) throw new IllegalArgumentException("step must be in [1, 1000000]");
+        if (interval <= 0 || interval > TimeUnit.DAYS.toMillis(1)) throw new IllegalArgumentException("interval must be in [1ms, 1 day]");
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            agingStep = step;
+            agingInterval = interval;
+            agingMaxPriority = maxPriority;
+            rebuild();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 关闭优先级老化，已经在队列中的元素恢复原始优先级 */
+    public void disableAging() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (agingStep == 0) return;
+            agingStep = 0;
+            rebuild();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isAging() {
+        return agingStep > 0;
+    }
+
+    /**
+     * 元素当前的有效优先级，开启老化时包括等待时间带来的提升
+     *
+     * @return 元素不在队列中时返回 null
      */
-    class Node<T> {
-        private boolean valueAsT = false;
-        private PriorityObject<?> value;
-        Node<T> next;
+    public Integer getEffectivePriority(Object o) {
+        if (o == null) return null;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Node node = find(o);
+            return node == null ? null : effectivePriority(node, uptimeMillis() - origin);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        Node(T value) {
-            setValue(value);
+    /**
+     * 修改队列中元素的优先级并调整它的位置，PriorityObject 的 priority 同时修改，
+     * 在队列中的等待时间和相同优先级中的先后顺序保持不变
+     *
+     * @return 元素不在队列中时返回 false
+     */
+    public boolean updatePriority(Object o, int priority) {
+        if (o == null) return false;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Node node = find(o);
+            if (node == null) return false;
+            if (node.value instanceof PriorityObject) ((PriorityObject<?>) node.value).priority = priority;
+            if (node.priority == priority) return true;
+            node.heap.remove(node);
+            node.priority = priority;
+            place(node);
+            return true;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        public int getPriority() {
-            return value.priority;
+    /** 计算等待时间使用的时钟，不受修改系统时间的影响 */
+    static long uptimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+    // 以下方法都需要持有 lock
+
+    private void initHeaps() {
+        int initialCapacity = Math.min(capacity, DEFAULT_INITIAL_CAPACITY);
+        fixed = new Heap(false, initialCapacity);
+        aging = new Heap(true, initialCapacity);
+    }
+
+    private int count() {
+        return fixed.size + aging.size;
+    }
+
+    private void enqueue(E e) {
+        long now = uptimeMillis();
+        Node node = new Node(e, sequence++, now - origin);
+        if (e instanceof PriorityObject) ((PriorityObject<?>) e).onEnqueue(now, node);
+        place(node);
+        notEmpty.signal();
+    }
+
+    private E dequeue() {
+        Node first = first();
+        first.heap.remove(first);
+        if (first.value instanceof PriorityObject) ((PriorityObject<?>) first.value).onDequeue(uptimeMillis());
+        notFull.signal();
+        return valueOf(first);
+    }
+
+    private void removeNode(Node node) {
+        node.heap.remove(node);
+        if (node.value instanceof PriorityObject) ((PriorityObject<?>) node.value).onDequeue(uptimeMillis());
+        notFull.signal();
+    }
+
+    /** 下一个出队的元素，先把已经老化到上限的元素移入 fixed */
+    private Node first() {
+        promote(uptimeMillis() - origin);
+        return fixed.size > 0 ? fixed.nodes[0] : aging.nodes[0];
+    }
+
+    /** 根据当前的老化设置放入对应的堆 */
+    private void place(Node node) {
+        if (agingStep > 0 && node.priority < agingMaxPriority) {
+            //有效优先级 = priority + step * (now - enqueueTime) / interval，乘以 interval 后去掉与时间相关的部分作为排序的键
+            node.key = (long) node.priority * agingInterval - agingStep * node.enqueueTime;
+            aging.add(node);
+        } else {
+            node.effective = node.priority;
+            fixed.add(node);
         }
+    }
 
-        @SuppressWarnings("unchecked")
-        public T getValue() {
-            if (value == null) {
-                return null;
-            } else if (valueAsT) {
-                return (T) value;
-            } else {
-                return (T) value.obj;
+    /** @param now 相对 origin 的毫秒数 */
+    private void promote(long now) {
+        long limit = (long) agingMaxPriority * agingInterval - agingStep * now;
+        while (aging.size > 0 && aging.nodes[0].key >= limit) {
+            Node node = aging.nodes[0];
+            aging.remove(node);
+            node.effective = agingMaxPriority;
+            fixed.add(node);
+        }
+    }
+
+    /** 老化的设置改变后，所有元素按照入队时间重新放置 */
+    private void rebuild() {
+        Node[] nodes = new Node[count()];
+        System.arraycopy(fixed.nodes, 0, nodes, 0, fixed.size);
+        System.arraycopy(aging.nodes, 0, nodes, fixed.size, aging.size);
+        fixed.clear();
+        aging.clear();
+        for (Node node : nodes) {
+            place(node);
+        }
+    }
+
+    private int effectivePriority(Node node, long now) {
+        if (node.heap == fixed) return node.effective;
+        long boost = agingStep * (now - node.enqueueTime) / agingInterval;
+        return (int) Math.min((long) node.priority + boost, agingMaxPriority);
+    }
+
+    private Node find(Object o) {
+        //PriorityObject 记录了自己的节点，不需要遍历
+        if (o instanceof PriorityObject) {
+            Object node = ((PriorityObject<?>) o).node;
+            if (node instanceof Node && (((Node) node).heap == fixed || ((Node) node).heap == aging)) return (Node) node;
+        }
+        for (Heap heap : new Heap[]{fixed, aging}) {
+            for (int i = 0; i < heap.size; i++) {
+                if (o.equals(heap.nodes[i].value)) return heap.nodes[i];
             }
         }
+        return null;
+    }
+
+    /** 按出队的顺序排列的所有节点 */
+    private Node[] sortedNodes() {
+        promote(uptimeMillis() - origin);
+        Node[] fixedNodes = Arrays.copyOf(fixed.nodes, fixed.size);
+        Node[] agingNodes = Arrays.copyOf(aging.nodes, aging.size);
+        Arrays.sort(fixedNodes, (a, b) -> fixed.before(a, b) ? -1 : fixed.before(b, a) ? 1 : 0);
+        Arrays.sort(agingNodes, (a, b) -> aging.before(a, b) ? -1 : aging.before(b, a) ? 1 : 0);
+        Node[] nodes = Arrays.copyOf(fixedNodes, fixedNodes.length + agingNodes.length);
+        System.arraycopy(agingNodes, 0, nodes, fixedNodes.length, agingNodes.length);
+        return nodes;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T valueOf(Node node) {
+        return (T) node.value;
+    }
+
+    /**
+     * 二叉堆，nodes[0] 是最先出队的元素，nodes[n] 的子节点是 nodes[2n+1] 和 nodes[2n+2]
+     */
+    private static class Heap {
+        final boolean isAging;      //老化的堆按 key 排序，否则按 effective 排序
+        Node[] nodes;
+        int size;
+
+        Heap(boolean isAging, int initialCapacity) {
+            this.isAging = isAging;
+            this.nodes = new Node[initialCapacity];
+        }
 
-        public void setValue(T value) {
-            if (value == null) {
-                this.value = null;
-            } else if (value instanceof PriorityObject) {
-                this.value = (PriorityObject<?>) value;
-                this.valueAsT = true;
+        /** 优先级高的在前，优先级相同时先入队的在前 */
+        boolean before(Node a, Node b) {
+            if (isAging) {
+                if (a.key != b.key) return a.key > b.key;
             } else {
-                this.value = new PriorityObject<T>(Priority.DEFAULT, value);
+                if (a.effective != b.effective) return a.effective > b.effective;
             }
+            return a.sequence < b.sequence;
+        }
+
+        void add(Node node) {
+            if (size == nodes.length) nodes = Arrays.copyOf(nodes, Math.max(size * 2, 1));
+            node.heap = this;
+            siftUp(size++, node);
+        }
+
+        void remove(Node node) {
+            int i = node.index;
+            Node last = nodes[--size];
+            nodes[size] = null;
+            if (i != size) {
+                //末尾的节点放到删除的位置，可能需要上移也可能需要下移
+                siftDown(i, last);
+                if (nodes[i] == last) siftUp(i, last);
+            }
+            node.index = -1;
+            node.heap = null;
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                nodes[i].index = -1;
+                nodes[i].heap = null;
+                nodes[i] = null;
+            }
+            size = 0;
+        }
+
+        void siftUp(int k, Node node) {
+            while (k > 0) {
+                int parent = (k - 1) >>> 1;
+                Node p = nodes[parent];
+                if (!before(node, p)) break;
+                nodes[k] = p;
+                p.index = k;
+                k = parent;
+            }
+            nodes[k] = node;
+            node.index = k;
+        }
+
+        void siftDown(int k, Node node) {
+            int half = size >>> 1;
+            while (k < half) {
+                int child = (k << 1) + 1;
+                Node c = nodes[child];
+                int right = child + 1;
+                if (right < size && before(nodes[right], c)) c = nodes[child = right];
+                if (!before(c, node)) break;
+                nodes[k] = c;
+                c.index = k;
+                k = child;
+            }
+            nodes[k] = node;
+            node.index = k;
         }
     }
 
+    /**
+     * 堆中的节点，不是 PriorityObject 的元素使用默认的优先级
+     */
+    private static class Node {
+        final Object value;
+        int priority;               //原始优先级
+        final long sequence;
+        final long enqueueTime;     //入队的时间，相对 origin 的毫秒数
+        int effective;              //在 fixed 中的有效优先级
+        long key;                   //在 aging 中的排序键
+        Heap heap;                  //所在的堆，不在队列中时为 null
+        int index;                  //在堆数组中的位置，不在队列中时为 -1
+
+        Node(Object value, long sequence, long enqueueTime) {
+            this.value = value;
+            this.priority = value instanceof PriorityObject ? ((PriorityObject<?>) value).priority : Priority.DEFAULT;
+            this.sequence = sequence;
+            this.enqueueTime = enqueueTime;
+        }
+    }
 }
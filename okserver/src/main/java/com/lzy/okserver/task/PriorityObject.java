@@ -23,14 +23,55 @@ package com.lzy.okserver.task;
  * 描    述：具有优先级对象的公共类
  * 修订历史：
  * ================================================
+ * <p>
+ * 2026-10-17
+ * 记录在 PriorityBlockingQueue 中的排队时间
+ * <p>
+ * 2026-10-17
+ * 优先级可以在排队时通过 PriorityBlockingQueue#updatePriority 修改
  */
 public class PriorityObject<E> {
 
-    public final int priority;
+    public volatile int priority;       //在队列中时只能通过 PriorityBlockingQueue#updatePriority 修改
     public final E obj;
 
+    private static final long NONE = Long.MIN_VALUE;
+
+    private volatile long enqueueTime = NONE;   //入队的时间，没有入队时为 NONE
+    private volatile long dequeueTime = NONE;   //出队的时间，还在队列中时为 NONE
+    volatile Object node;                       //所在队列中的节点，用于直接定位
+
     public PriorityObject(int priority, E obj) {
         this.priority = priority;
         this.obj = obj;
     }
+
+    /**
+     * 在队列中等待的时间，单位 ms，还在队列中时返回已经等待的时间
+     *
+     * @return 没有进入过 PriorityBlockingQueue 时返回 -1
+     */
+    public long getWaitTime() {
+        long enqueue = enqueueTime;
+        long dequeue = dequeueTime;
+        if (enqueue == NONE) return -1;
+        if (dequeue == NONE) dequeue = PriorityBlockingQueue.uptimeMillis();
+        return Math.max(dequeue - enqueue, 0);
+    }
+
+    /** 是否还在队列中等待 */
+    public boolean isQueued() {
+        return enqueueTime != NONE && dequeueTime == NONE;
+    }
+
+    void onEnqueue(long time, Object node) {
+        this.node = node;
+        dequeueTime = NONE;
+        enqueueTime = time;
+    }
+
+    void onDequeue(long time) {
+        node = null;
+        dequeueTime = time;
+    }
 }
@@ -0,0 +1,172 @@
+package com.lzy.okserver.task;
+
+import android.content.ContentValues;
+
+import com.lzy.okgo.db.BaseDao;
+import com.lzy.okgo.db.SegmentManager;
+import com.lzy.okgo.model.Progress;
+import com.lzy.okgo.model.Segment;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：进度的延迟写入，下载中的进度按任务合并，定时或者累计到一定字节数后在一个事务中写入数据库，
+ * 开始、暂停、出错、完成等状态变化仍然立即写入
+ * 修订历史：
+ * ================================================
+ */
+public class ProgressPersister {
+
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;             //默认的写入间隔，单位 ms
+    public static final long DEFAULT_FLUSH_BYTES = 1024 * 1024 * 4;      //默认累计多少字节后立即写入
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor();
+
+    private final BaseDao<Progress> dao;
+    private final SegmentManager segmentManager;    //下载任务需要同时保存分段的断点，上传任务为 null
+    private final Object flushLock = new Object();  //保证延迟写入和立即写入的先后顺序
+    private Map<String, ContentValues> pendingValues = new LinkedHashMap<>();
+    private Map<String, List<Segment>> pendingSegments = new HashMap<>();
+    private final Map<String, Long> savedSizes = new HashMap<>();
+    private final Set<String> discardedTags = new HashSet<>();   //已经丢弃的任务，在下一次立即写入之前忽略延迟写入
+    private long pendingBytes;
+    private boolean scheduled;
+    private volatile long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private volatile long flushBytes = DEFAULT_FLUSH_BYTES;
+
+    public ProgressPersister(BaseDao<Progress> dao, SegmentManager segmentManager) {
+        this.dao = dao;
+        this.segmentManager = segmentManager;
+    }
+
+    /** 延迟写入的间隔，小于等于0时每次都立即写入 */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /** 所有任务累计下载的字节数达到该值时立即写入 */
+    public void setFlushBytes(long flushBytes) {
+        this.flushBytes = flushBytes;
+    }
+
+    /**
+     * 保存下载中的进度，同一个任务未写入的进度会被新的进度覆盖
+     *
+     * @param segments 分段下载的断点，没有时为 null
+     */
+    public synchronized void save(Progress progress, List<Segment> segments) {
+        if (discardedTags.contains(progress.tag)) return;
+        pendingValues.put(progress.tag, Progress.buildUpdateContentValues(progress));
+        if (segments != null) pendingSegments.put(progress.tag, copy(segments));
+        Long savedSize = savedSizes.put(progress.tag, progress.currentSize);
+        if (savedSize != null) pendingBytes += Math.abs(progress.currentSize - savedSize);
+
+        if (flushInterval <= 0 || pendingBytes >= flushBytes) {
+            pendingBytes = 0;
+            SCHEDULER.execute(this::flush);
+        } else if (!scheduled) {
+            scheduled = true;
+            SCHEDULER.schedule(this::flush, flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** 立即写入，用于状态发生变化的时候，会丢弃该任务还没有写入的进度 */
+    public void saveNow(Progress progress, List<Segment> segments) {
+        synchronized (flushLock) {
+            synchronized (this) {
+                pendingValues.remove(progress.tag);
+                pendingSegments.remove(progress.tag);
+                savedSizes.put(progress.tag, progress.currentSize);
+                discardedTags.remove(progress.tag);
+            }
+            Map<String, ContentValues> values = new HashMap<>();
+            values.put(progress.tag, Progress.buildUpdateContentValues(progress));
+            Map<String, List<Segment>> segmentMap = new HashMap<>();
+            if (segments != null) segmentMap.put(progress.tag, segments);
+            write(values, segmentMap);
+        }
+    }
+
+    /**
+     * 丢弃该任务还没有写入的进度，任务被删除或者重新下载前调用，
+     * 之后仍在进行中的延迟写入会被忽略，直到该任务下一次立即写入
+     */
+    public void discard(String tag) {
+        synchronized (flushLock) {
+            synchronized (this) {
+                pendingValues.remove(tag);
+                pendingSegments.remove(tag);
+                savedSizes.remove(tag);
+                discardedTags.add(tag);
+            }
+        }
+    }
+
+    /** 只丢弃该任务还没有写入的分段断点，断点被清除前调用，任务的进度仍然正常写入 */
+    public void discardSegments(String tag) {
+        synchronized (flushLock) {
+            synchronized (this) {
+                pendingSegments.remove(tag);
+            }
+        }
+    }
+
+    /** 把所有还没有写入的进度写入数据库 */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<String, ContentValues> values;
+            Map<String, List<Segment>> segments;
+            synchronized (this) {
+                values = pendingValues;
+                segments = pendingSegments;
+                pendingValues = new LinkedHashMap<>();
+                pendingSegments = new HashMap<>();
+                pendingBytes = 0;
+                scheduled = false;
+            }
+            if (!values.isEmpty()) {
+                write(values, segments);
+            }
+        }
+    }
+
+    /**
+     * 进度和分段的断点在同一个事务中写入，避免只写入了其中一张表，
+     * 进度的记录已经不存在时说明任务已经被删除，不再写入该任务的断点
+     */
+    private void write(Map<String, ContentValues> values, Map<String, List<Segment>> segments) {
+        dao.startTransaction(database -> {
+            for (Map.Entry<String, ContentValues> entry : values.entrySet()) {
+                String tag = entry.getKey();
+                long rows = dao.update(database, entry.getValue(), Progress.TAG + "=?", new String[]{tag});
+                List<Segment> list = segments.get(tag);
+                if (segmentManager == null || list == null || rows <= 0) continue;
+                for (Segment segment : list) {
+                    segmentManager.replace(database, segment);
+                }
+            }
+        });
+    }
+
+    private static List<Segment> copy(List<Segment> segments) {
+        List<Segment> list = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            Segment copy = new Segment(segment.tag, segment.index, segment.start, segment.end);
+            copy.current = segment.current;
+            list.add(copy);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,60 @@
+package com.lzy.okserver.task;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：任务的调度状态，保证同一个任务同一时间最多只有一个 Runnable 在队列中或者正在执行，
+ * 执行期间任务被暂停后又重新开始时，不会再放入一个新的 Runnable，而是在当前执行结束后重新排队
+ * 修订历史：
+ * ================================================
+ */
+public class ScheduleState {
+
+    private static final int IDLE = 0;          //没有在队列中，也没有执行
+    private static final int SCHEDULED = 1;     //在队列中或者正在执行
+    private static final int PENDING = 2;       //正在执行，并且执行期间又被开始了
+
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+
+    /**
+     * 任务开始时调用
+     *
+     * @return true 表示调用者需要把任务放入线程池，false 表示已经在队列中或者会在当前执行结束后重新排队
+     */
+    public boolean schedule() {
+        while (true) {
+            int current = state.get();
+            if (current == IDLE) {
+                if (state.compareAndSet(IDLE, SCHEDULED)) return true;
+            } else if (current == SCHEDULED) {
+                if (state.compareAndSet(SCHEDULED, PENDING)) return false;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 执行结束、从队列中移除或者放弃排队时调用
+     *
+     * @return true 表示执行期间又被开始了，状态仍然是已调度，调用者需要检查任务的状态后重新放入线程池，
+     * 不需要排队时要再次调用这个方法
+     */
+    public boolean finish() {
+        while (true) {
+            int current = state.get();
+            if (current == PENDING) {
+                if (state.compareAndSet(PENDING, SCHEDULED)) return true;
+            } else if (state.compareAndSet(current, IDLE)) {
+                return false;
+            }
+        }
+    }
+
+    public boolean isScheduled() {
+        return state.get() != IDLE;
+    }
+}
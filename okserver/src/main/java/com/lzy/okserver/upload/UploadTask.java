@@ -15,8 +15,6 @@
  */
 package com.lzy.okserver.upload;
 
-import android.content.ContentValues;
-
 import com.lzy.okgo.db.UploadManager;
 import com.lzy.okgo.model.Progress;
 import com.lzy.okgo.model.Response;
@@ -24,8 +22,11 @@ import com.lzy.okgo.request.base.ProgressRequestBody;
 import com.lzy.okgo.request.base.Request;
 import com.lzy.okgo.utils.HttpUtils;
 import com.lzy.okgo.utils.OkLogger;
+import com.lzy.okgo.utils.RateLimiter;
 import com.lzy.okserver.OkUpload;
+import com.lzy.okserver.task.PriorityBlockingQueue;
 import com.lzy.okserver.task.PriorityRunnable;
+import com.lzy.okserver.task.ScheduleState;
 
 import java.io.Serializable;
 import java.util.HashMap;
@@ -42,13 +43,19 @@ import okhttp3.Call;
  * 描    述：上传任务类
  * 修订历史：
  * ================================================
+ * <p>
+ * 2026-10-17
+ * 状态通过 CAS 转换，开始、暂停、删除可以在任意线程中频繁调用，同一个任务同一时间只有一个上传线程
+ * 排队中修改优先级会立即调整在队列中的位置
  */
 public class UploadTask<T> implements Runnable {
 
     public Progress progress;
     public Map<Object, UploadListener<T>> listeners;
     private ThreadPoolExecutor executor;
-    private PriorityRunnable priorityRunnable;
+    private volatile PriorityRunnable priorityRunnable;
+    private final ScheduleState scheduleState = new ScheduleState();   //保证同一时间只有一个上传线程
+    private RateLimiter rateLimiter = new RateLimiter();   //当前任务的限速
 
     public UploadTask(String tag, Request<T, ? extends Request> request) {
         HttpUtils.checkNotNull(tag, "tag == null");
@@ -70,11 +77,26 @@ public class UploadTask<T> implements Runnable {
         listeners = new HashMap<>();
     }
 
+    /** 任务的优先级，正在排队时立即调整在队列中的位置 */
     public UploadTask<T> priority(int priority) {
         progress.priority = priority;
+        PriorityRunnable runnable = priorityRunnable;
+        if (runnable != null && executor.getQueue() instanceof PriorityBlockingQueue) {
+            ((PriorityBlockingQueue<?>) executor.getQueue()).updatePriority(runnable, priority);
+        }
+        return this;
+    }
+
+    /** 设置当前任务的上传速度，单位 byte/s，小于等于0表示不限速，上传过程中也可以修改 */
+    public UploadTask<T> rateLimit(long bytesPerSecond) {
+        rateLimiter.setRate(bytesPerSecond);
         return this;
     }
 
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
     public UploadTask<T> extra1(Serializable extra1) {
         progress.extra1 = extra1;
         return this;
@@ -116,20 +138,24 @@ public class UploadTask<T> implements Runnable {
         if (OkUpload.getInstance().getTask(progress.tag) == null || UploadManager.getInstance().get(progress.tag) == null) {
             throw new IllegalStateException("you must call UploadTask#save() before UploadTask#start()！");
         }
-        if (progress.status != Progress.WAITING && progress.status != Progress.LOADING) {
-            postOnStart(progress);
-            postWaiting(progress);
-            priorityRunnable = new PriorityRunnable(progress.priority, this);
-            executor.execute(priorityRunnable);
-        } else {
-            OkLogger.w("the task with tag " + progress.tag + " is already in the upload queue, current task status is " + progress.status);
+        while (true) {
+            int status = progress.status;
+            if (status == Progress.WAITING || status == Progress.LOADING) {
+                OkLogger.w("the task with tag " + progress.tag + " is already in the upload queue, current task status is " + status);
+                return this;
+            }
+            if (progress.compareAndSetStatus(status, Progress.WAITING)) break;
         }
+        postOnStart(progress);
+        postWaiting(progress);
+        //上一次执行还没有结束时，由它结束后重新排队
+        if (scheduleState.schedule()) enqueue();
         return this;
     }
 
     public void restart() {
         pause();
-        progress.status = Progress.NONE;
+        progress.transitionTo(Progress.NONE);
         progress.currentSize = 0;
         progress.fraction = 0;
         progress.speed = 0;
@@ -139,20 +165,27 @@ public class UploadTask<T> implements Runnable {
 
     /** 暂停的方法 */
     public void pause() {
-        executor.remove(priorityRunnable);
-        if (progress.status == Progress.WAITING) {
-            postPause(progress);
-        } else if (progress.status == Progress.LOADING) {
-            progress.speed = 0;
-            progress.status = Progress.PAUSE;
-        } else {
-            OkLogger.w("only the task with status WAITING(1) or LOADING(2) can pause, current status is " + progress.status);
+        while (true) {
+            int status = progress.status;
+            if (status == Progress.WAITING) {
+                if (!progress.compareAndSetStatus(Progress.WAITING, Progress.PAUSE)) continue;
+                //已经开始执行的上传线程发现状态改变后直接结束
+                if (executor.remove(priorityRunnable)) onScheduleEnd();
+                postPause(progress);
+            } else if (status == Progress.LOADING) {
+                if (!progress.compareAndSetStatus(Progress.LOADING, Progress.PAUSE)) continue;
+                progress.speed = 0;
+            } else {
+                OkLogger.w("only the task with status WAITING(1) or LOADING(2) can pause, current status is " + status);
+            }
+            return;
         }
     }
 
     /** 删除一个任务,会删除下载文件 */
     public UploadTask<T> remove() {
         pause();
+        OkUpload.getInstance().getPersister().discard(progress.tag);
         UploadManager.getInstance().delete(progress.tag);
         //noinspection unchecked
         UploadTask<T> task = (UploadTask<T>) OkUpload.getInstance().removeTask(progress.tag);
@@ -162,12 +195,25 @@ public class UploadTask<T> implements Runnable {
 
     @Override
     public void run() {
-        progress.status = Progress.LOADING;
+        //排队期间被暂停或者删除了
+        if (!progress.compareAndSetStatus(Progress.WAITING, Progress.LOADING)) {
+            onScheduleEnd();
+            return;
+        }
+        try {
+            upload();
+        } finally {
+            onScheduleEnd();
+        }
+    }
+
+    private void upload() {
         postLoading(progress);
         final Response<T> response;
         try {
             //noinspection unchecked
             Request<T, ? extends Request> request = (Request<T, ? extends Request>) progress.request;
+            request.rateLimiters(rateLimiter, OkUpload.getInstance().getRateLimiter());
             final Call rawCall = request.getRawCall();
             request.uploadInterceptor(new ProgressRequestBody.UploadInterceptor() {
                 @Override
@@ -194,10 +240,31 @@ public class UploadTask<T> implements Runnable {
         }
     }
 
+    private void enqueue() {
+        priorityRunnable = new PriorityRunnable(progress.priority, this);
+        executor.execute(priorityRunnable);
+    }
+
+    /** 执行结束或者离开队列，执行期间被重新开始的任务再次排队 */
+    private void onScheduleEnd() {
+        while (scheduleState.finish()) {
+            if (progress.status == Progress.WAITING) {
+                enqueue();
+                return;
+            }
+        }
+    }
+
+    /** 当前状态是 from 中的任意一个时转换到 to */
+    private boolean transition(int to, int... from) {
+        for (int expect : from) {
+            if (progress.compareAndSetStatus(expect, to)) return true;
+        }
+        return false;
+    }
+
     private void postOnStart(final Progress progress) {
         progress.speed = 0;
-        progress.status = Progress.NONE;
-        updateDatabase(progress);
         HttpUtils.runOnUiThread(new Runnable() {
             @Override
             public void run() {
@@ -210,7 +277,6 @@ public class UploadTask<T> implements Runnable {
 
     private void postWaiting(final Progress progress) {
         progress.speed = 0;
-        progress.status = Progress.WAITING;
         updateDatabase(progress);
         HttpUtils.runOnUiThread(new Runnable() {
             @Override
@@ -223,8 +289,9 @@ public class UploadTask<T> implements Runnable {
     }
 
     private void postPause(final Progress progress) {
+        //暂停后又被重新开始的任务不再通知暂停
+        if (!progress.compareAndSetStatus(Progress.LOADING, Progress.PAUSE) && progress.status != Progress.PAUSE) return;
         progress.speed = 0;
-        progress.status = Progress.PAUSE;
         updateDatabase(progress);
         HttpUtils.runOnUiThread(new Runnable() {
             @Override
@@ -237,7 +304,7 @@ public class UploadTask<T> implements Runnable {
     }
 
     private void postLoading(final Progress progress) {
-        updateDatabase(progress);
+        OkUpload.getInstance().getPersister().save(progress, null);
         HttpUtils.runOnUiThread(new Runnable() {
             @Override
             public void run() {
@@ -249,8 +316,12 @@ public class UploadTask<T> implements Runnable {
     }
 
     private void postOnError(final Progress progress, final Throwable throwable) {
+        //暂停时取消请求导致的错误按暂停处理，暂停后又被重新开始的任务不再通知失败
+        if (!transition(Progress.ERROR, Progress.LOADING, Progress.ERROR)) {
+            if (progress.status == Progress.PAUSE) postPause(progress);
+            return;
+        }
         progress.speed = 0;
-        progress.status = Progress.ERROR;
         progress.exception = throwable;
         updateDatabase(progress);
         HttpUtils.runOnUiThread(new Runnable() {
@@ -265,9 +336,9 @@ public class UploadTask<T> implements Runnable {
     }
 
     private void postOnFinish(final Progress progress, final T t) {
+        if (!transition(Progress.FINISH, Progress.LOADING, Progress.PAUSE)) return;
         progress.speed = 0;
         progress.fraction = 1.0f;
-        progress.status = Progress.FINISH;
         updateDatabase(progress);
         HttpUtils.runOnUiThread(new Runnable() {
             @Override
@@ -294,7 +365,6 @@ public class UploadTask<T> implements Runnable {
     }
 
     private void updateDatabase(Progress progress) {
-        ContentValues contentValues = Progress.buildUpdateContentValues(progress);
-        UploadManager.getInstance().update(contentValues, progress.tag);
+        OkUpload.getInstance().getPersister().saveNow(progress, null);
     }
 }
@@ -0,0 +1,44 @@
+package com.lzy.okserver.download;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：刷新已经完成的文件时，服务器返回的新文件长度和旧文件不同
+ * 修订历史：
+ * ================================================
+ */
+public class RefreshTotalSizeTest {
+
+    @Test
+    public void refreshedFileGrows() {
+        //旧文件 1000 字节，刷新时服务器返回 200 和 1500 字节的新文件
+        assertEquals(1500, DownloadTask.resolveTotalSize(200, 1000, 1500));
+    }
+
+    @Test
+    public void refreshedFileShrinks() {
+        assertEquals(600, DownloadTask.resolveTotalSize(200, 1000, 600));
+    }
+
+    @Test
+    public void refreshedFileWithoutLength() {
+        assertEquals(Long.MAX_VALUE, DownloadTask.resolveTotalSize(200, 1000, -1));
+    }
+
+    @Test
+    public void refreshWithRangeProbe() {
+        //分段下载时刷新请求 bytes=0-，execute 已经把长度重置为未知，使用 206 的长度
+        assertEquals(1500, DownloadTask.resolveTotalSize(206, -1, 1500));
+    }
+
+    @Test
+    public void resumeKeepsTotalSize() {
+        //断点续传时 206 的长度只是剩余的部分
+        assertEquals(1000, DownloadTask.resolveTotalSize(206, 1000, 400));
+    }
+}
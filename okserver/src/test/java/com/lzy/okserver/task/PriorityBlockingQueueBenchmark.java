@@ -0,0 +1,112 @@
+package com.lzy.okserver.task;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：对比二叉堆的 PriorityBlockingQueue 和原来有序链表的 LinkedPriorityBlockingQueue，
+ * 分别测试先放入 n 个再全部取出，以及队列中有 n 个元素时 10000 次放入和取出。
+ * 默认 n 为 10000，可以用 -Dbenchmark.sizes=10000,100000 指定，链表在 100000 时需要几十秒
+ * 修订历史：
+ * ================================================
+ */
+public class PriorityBlockingQueueBenchmark {
+
+    private static final int[] PRIORITIES = {-1000, -100, 0, 0, 0, 100, 1000};
+    private static final int STEADY_OPS = 10000;
+
+    /** 优先级高的先出队，优先级相同时先入队的先出队，随机删除后顺序不变 */
+    @Test
+    public void order() {
+        Random random = new Random(1);
+        PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+        List<PriorityRunnable> expected = new ArrayList<>();
+        Map<PriorityRunnable, Integer> sequences = new IdentityHashMap<>();
+        int sequence = 0;
+        for (int op = 0; op < 200000; op++) {
+            int kind = random.nextInt(10);
+            if (kind < 5) {
+                PriorityRunnable runnable = new PriorityRunnable(random.nextInt(5) - 2, () -> {});
+                sequences.put(runnable, sequence++);
+                queue.offer(runnable);
+                expected.add(runnable);
+            } else if (kind < 8) {
+                PriorityRunnable first = null;
+                for (PriorityRunnable runnable : expected) {
+                    if (first == null || runnable.priority > first.priority //
+                            || runnable.priority == first.priority && sequences.get(runnable) < sequences.get(first)) {
+                        first = runnable;
+                    }
+                }
+                assertSame(first, queue.poll());
+                if (first != null) expected.remove(first);
+            } else if (!expected.isEmpty()) {
+                PriorityRunnable runnable = expected.remove(random.nextInt(expected.size()));
+                assertTrue(queue.remove(runnable));
+            }
+            assertEquals(expected.size(), queue.size());
+        }
+    }
+
+    @Test
+    public void compare() {
+        for (String value : System.getProperty("benchmark.sizes", "10000").split(",")) {
+            int n = Integer.parseInt(value.trim());
+            Random random = new Random(n);
+            PriorityRunnable[] items = newItems(random, n);
+            PriorityRunnable[] extra = newItems(random, STEADY_OPS);
+            //预热
+            fillAndDrain(new PriorityBlockingQueue<Runnable>(), items);
+            fillAndDrain(new LinkedPriorityBlockingQueue<Runnable>(), items);
+            System.out.println(String.format("n=%d fill+drain: linked %dms, heap %dms | %d offer+poll at size n: linked %dms, heap %dms", n, //
+                    fillAndDrain(new LinkedPriorityBlockingQueue<Runnable>(), items), fillAndDrain(new PriorityBlockingQueue<Runnable>(), items), STEADY_OPS, //
+                    steady(new LinkedPriorityBlockingQueue<Runnable>(), items, extra), steady(new PriorityBlockingQueue<Runnable>(), items, extra)));
+        }
+    }
+
+    private static PriorityRunnable[] newItems(Random random, int n) {
+        PriorityRunnable[] items = new PriorityRunnable[n];
+        for (int i = 0; i < n; i++) {
+            items[i] = new PriorityRunnable(PRIORITIES[random.nextInt(PRIORITIES.length)], () -> {});
+        }
+        return items;
+    }
+
+    private static long fillAndDrain(BlockingQueue<Runnable> queue, PriorityRunnable[] items) {
+        long start = System.nanoTime();
+        for (PriorityRunnable item : items) {
+            queue.offer(item);
+        }
+        while (queue.poll() != null) {
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    /** 队列中保持 n 个元素，放入 extra 中的元素后取出一个 */
+    private static long steady(BlockingQueue<Runnable> queue, PriorityRunnable[] items, PriorityRunnable[] extra) {
+        for (PriorityRunnable item : items) {
+            queue.offer(item);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < STEADY_OPS; i++) {
+            queue.offer(extra[i]);
+            queue.poll();
+        }
+        long time = (System.nanoTime() - start) / 1000000;
+        queue.clear();
+        return time;
+    }
+}
@@ -0,0 +1,66 @@
+package com.lzy.okserver.task;
+
+import com.lzy.okgo.model.Progress;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：任务状态机的转换表，逐一检查所有状态之间允许和拒绝的转换
+ * 修订历史：
+ * ================================================
+ */
+public class ProgressTransitionTest {
+
+    private static final int[] STATUS = {Progress.NONE, Progress.WAITING, Progress.LOADING, Progress.PAUSE, Progress.ERROR, Progress.FINISH};
+    private static final String[] NAMES = {"NONE", "WAITING", "LOADING", "PAUSE", "ERROR", "FINISH"};
+
+    //行是转换前的状态，列是转换后的状态，顺序和 STATUS 相同
+    private static final boolean[][] ALLOWED = {
+            //NONE  WAITING LOADING PAUSE  ERROR  FINISH
+            {true, true, false, false, false, false},   //NONE
+            {true, false, true, true, false, false},    //WAITING
+            {true, true, false, true, true, true},      //LOADING
+            {true, true, false, true, false, true},     //PAUSE
+            {true, true, false, false, true, false},    //ERROR
+            {true, true, false, false, true, true},     //FINISH
+    };
+
+    @Test
+    public void everyPair() {
+        for (int i = 0; i < STATUS.length; i++) {
+            for (int j = 0; j < STATUS.length; j++) {
+                assertEquals(NAMES[i] + " -> " + NAMES[j], ALLOWED[i][j], Progress.isValidTransition(STATUS[i], STATUS[j]));
+            }
+        }
+    }
+
+    @Test
+    public void unknownStatus() {
+        //未知的状态只能回到 NONE
+        assertFalse(Progress.isValidTransition(-1, Progress.WAITING));
+        assertFalse(Progress.isValidTransition(Progress.FINISH + 1, Progress.LOADING));
+        assertFalse(Progress.isValidTransition(Progress.NONE, -1));
+    }
+
+    @Test
+    public void compareAndSetFollowsTable() {
+        for (int i = 0; i < STATUS.length; i++) {
+            for (int j = 0; j < STATUS.length; j++) {
+                Progress progress = new Progress();
+                progress.status = STATUS[i];
+                assertEquals(NAMES[i] + " -> " + NAMES[j], ALLOWED[i][j], progress.compareAndSetStatus(STATUS[i], STATUS[j]));
+                assertEquals(ALLOWED[i][j] ? STATUS[j] : STATUS[i], progress.status);
+
+                progress.status = STATUS[i];
+                assertEquals(NAMES[i] + " -> " + NAMES[j], ALLOWED[i][j], progress.transitionTo(STATUS[j]));
+                assertEquals(ALLOWED[i][j] ? STATUS[j] : STATUS[i], progress.status);
+            }
+        }
+    }
+}
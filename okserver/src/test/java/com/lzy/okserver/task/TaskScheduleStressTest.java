@@ -0,0 +1,276 @@
+package com.lzy.okserver.task;
+
+import com.lzy.okgo.model.Progress;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ================================================
+ * 版    本：1.0
+ * 创建日期：2026/10/17
+ * 描    述：多个线程同时开始、暂停、抢占、重新开始、删除同一批任务，
+ * 检查状态只按状态机转换，同一个任务同一时间最多只有一个执行线程，并且所有任务最终都会离开队列。
+ * DownloadTask 和 UploadTask 依赖数据库和 OkGo 的初始化，这里的 StressTask 按照它们的调度方式
+ * 使用真实的 Progress、ScheduleState、PriorityRunnable 和 PriorityBlockingQueue
+ * 修订历史：
+ * ================================================
+ */
+public class TaskScheduleStressTest {
+
+    private static final int TASK_COUNT = 20;
+    private static final int CALLER_COUNT = 4;
+    private static final int OPERATIONS = 20000;
+    private static final int MAX_RETRIES = 3;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor();
+
+    @Test
+    public void concurrentStartPauseRestartRemove() throws Exception {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(3, 3, 1, TimeUnit.MINUTES, new PriorityBlockingQueue<Runnable>());
+        final StressTask[] tasks = new StressTask[TASK_COUNT];
+        for (int i = 0; i < TASK_COUNT; i++) {
+            tasks[i] = new StressTask(executor);
+        }
+
+        List<Thread> callers = new ArrayList<>();
+        for (int c = 0; c < CALLER_COUNT; c++) {
+            final long seed = c;
+            Thread caller = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < OPERATIONS; i++) {
+                    StressTask task = tasks[random.nextInt(TASK_COUNT)];
+                    int op = random.nextInt(100);
+                    if (op < 45) task.start();
+                    else if (op < 75) task.pause();
+                    else if (op < 90) task.preempt();
+                    else if (op < 99) task.restart();
+                    //删除后的任务不能再开始，只在最后一部分操作中删除，保证前面有足够的并发
+                    else if (i > OPERATIONS * 9 / 10) task.remove();
+                    //让执行线程有机会运行，和调用者的操作交错
+                    Thread.yield();
+                }
+            });
+            callers.add(caller);
+            caller.start();
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+
+        //最后一次操作之后，等待中的任务都会被执行，等待重试的任务也会重新排队
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!isIdle(executor, tasks) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        executor.shutdown();
+
+        for (StressTask task : tasks) {
+            assertTrue("more than one worker for a task: " + task.maxRunning, task.maxRunning.get() <= 1);
+            task.assertTransitions();
+            int status = task.progress.status;
+            assertTrue("task stuck with status " + status, status != Progress.WAITING && status != Progress.LOADING);
+            assertFalse("task still scheduled", task.scheduleState.isScheduled());
+        }
+    }
+
+    private static boolean isIdle(ThreadPoolExecutor executor, StressTask[] tasks) {
+        if (executor.getActiveCount() > 0 || !executor.getQueue().isEmpty()) return false;
+        for (StressTask task : tasks) {
+            if (task.scheduleState.isScheduled() || task.isRetryPending()) return false;
+            int status = task.progress.status;
+            if (status == Progress.WAITING || status == Progress.LOADING) return false;
+        }
+        return true;
+    }
+
+    /** 和 DownloadTask 相同的调度方式，下载过程用随机的结果代替 */
+    private static class StressTask implements Runnable {
+
+        final Progress progress = new Progress();
+        final ScheduleState scheduleState = new ScheduleState();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        private final ThreadPoolExecutor executor;
+        private final List<int[]> transitions = new ArrayList<>();  //按发生的顺序记录所有成功的转换
+        private volatile PriorityRunnable priorityRunnable;
+        private volatile boolean isRemoved;
+        private Future<?> retryFuture;
+        private int retries;
+
+        StressTask(ThreadPoolExecutor executor) {
+            this.executor = executor;
+            progress.status = Progress.NONE;
+        }
+
+        void start() {
+            if (isRemoved) return;
+            while (true) {
+                int status = progress.status;
+                if (status != Progress.NONE && status != Progress.PAUSE && status != Progress.ERROR) return;
+                if (!compareAndSet(status, Progress.WAITING)) continue;
+                retries = 0;
+                if (scheduleState.schedule()) enqueue();
+                return;
+            }
+        }
+
+        void pause() {
+            while (true) {
+                int status = progress.status;
+                if (status == Progress.WAITING) {
+                    if (!compareAndSet(Progress.WAITING, Progress.PAUSE)) continue;
+                    unschedule();
+                } else if (status == Progress.LOADING) {
+                    if (!compareAndSet(Progress.LOADING, Progress.PAUSE)) continue;
+                }
+                return;
+            }
+        }
+
+        void preempt() {
+            if (!compareAndSet(Progress.LOADING, Progress.WAITING)) return;
+            retries = 0;
+            if (scheduleState.schedule()) enqueue();
+        }
+
+        void restart() {
+            pause();
+            if (isRemoved) return;
+            transitionTo(Progress.NONE);
+            start();
+        }
+
+        void remove() {
+            isRemoved = true;
+            pause();
+        }
+
+        @Override
+        public void run() {
+            if (!compareAndSet(Progress.WAITING, Progress.LOADING)) {
+                onScheduleEnd();
+                return;
+            }
+            int count = running.incrementAndGet();
+            while (true) {
+                int max = maxRunning.get();
+                if (count <= max || maxRunning.compareAndSet(max, count)) break;
+            }
+            try {
+                Random random = new Random();
+                for (int i = random.nextInt(2000); i > 0 && progress.status == Progress.LOADING; i--) {
+                    Thread.yield();
+                }
+                //状态改变后下载线程还要关闭连接、保存断点，这段时间内不能有新的执行线程
+                for (int i = random.nextInt(200); i > 0; i--) {
+                    Thread.yield();
+                }
+                int result = random.nextInt(3);
+                if (result == 0) {
+                    if (!compareAndSet(Progress.LOADING, Progress.FINISH)) postPause();
+                } else if (result == 1 || retries >= MAX_RETRIES) {
+                    if (!compareAndSet(Progress.LOADING, Progress.ERROR)) postPause();
+                } else {
+                    retries++;
+                    scheduleRetry(random.nextInt(5));
+                }
+            } finally {
+                running.decrementAndGet();
+                onScheduleEnd();
+            }
+        }
+
+        private void postPause() {
+            if (!compareAndSet(Progress.LOADING, Progress.PAUSE) && progress.status != Progress.PAUSE) return;
+            compareAndSet(Progress.PAUSE, Progress.PAUSE);
+        }
+
+        private void scheduleRetry(long delay) {
+            if (!compareAndSet(Progress.LOADING, Progress.WAITING)) {
+                postPause();
+                return;
+            }
+            synchronized (this) {
+                retryFuture = SCHEDULER.schedule(this::onRetryDelayed, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void onRetryDelayed() {
+            synchronized (this) {
+                retryFuture = null;
+            }
+            if (progress.status != Progress.WAITING) return;
+            if (scheduleState.schedule()) enqueue();
+        }
+
+        synchronized boolean isRetryPending() {
+            return retryFuture != null;
+        }
+
+        private void unschedule() {
+            boolean removed;
+            synchronized (this) {
+                if (retryFuture != null) {
+                    retryFuture.cancel(false);
+                    retryFuture = null;
+                }
+                removed = executor.remove(priorityRunnable);
+            }
+            if (removed) onScheduleEnd();
+        }
+
+        private void onScheduleEnd() {
+            while (scheduleState.finish()) {
+                if (progress.status == Progress.WAITING) {
+                    enqueue();
+                    return;
+                }
+            }
+        }
+
+        private synchronized void enqueue() {
+            priorityRunnable = new PriorityRunnable(progress.priority, this);
+            executor.execute(priorityRunnable);
+        }
+
+        private boolean compareAndSet(int expect, int update) {
+            synchronized (transitions) {
+                if (!progress.compareAndSetStatus(expect, update)) return false;
+                transitions.add(new int[]{expect, update});
+                return true;
+            }
+        }
+
+        private void transitionTo(int update) {
+            synchronized (transitions) {
+                int current = progress.status;
+                if (progress.transitionTo(update)) transitions.add(new int[]{current, update});
+            }
+        }
+
+        /** 每一次转换都符合状态机，并且前后首尾相接，没有绕过状态机的修改 */
+        void assertTransitions() {
+            int status = Progress.NONE;
+            for (int[] transition : transitions) {
+                assertEquals("transition starts from a different status", status, transition[0]);
+                assertTrue(transition[0] + " -> " + transition[1], Progress.isValidTransition(transition[0], transition[1]));
+                status = transition[1];
+            }
+            assertEquals(status, progress.status);
+        }
+    }
+}